@@ -22,6 +22,22 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    public void nextBatch(TupleBatch batch, int[] cols) throws DbException, TransactionAbortedException {
+        if (next != null && !batch.isFull()) {
+            batch.add(next, cols);
+            next = null;
+        }
+        readBatch(batch, cols);
+    }
+
+    /** Reads tuples from the underlying source into batch until it is full
+    or the iteration is finished. This default calls readNext() for each. */
+    protected void readBatch(TupleBatch batch, int[] cols) throws DbException, TransactionAbortedException {
+        Tuple t;
+        while (!batch.isFull() && (t = readNext()) != null)
+            batch.add(t, cols);
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
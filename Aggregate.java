@@ -7,18 +7,27 @@ import java.util.*;
 import static simpledb.Aggregator.NO_GROUPING;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min) grouped by any number of columns. Several aggregates over the same
+ * groups are computed together, in one pass over the child.
+ * <p>
+ * An aggregation may also run in two phases: partial aggregates of parts of
+ * the input, say one per thread (see {@link #partial}), then a final
+ * aggregate merging them (see {@link #merging}). Partial aggregates of an
+ * AVG are SUM_COUNTs, merged by SC_AVG; counts are merged by SUM, and the
+ * other aggregates by themselves.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     OpIterator[] childs;
-    int afield, gfield;
-    Aggregator.Op aop;
+    int[] afields, gfields;
+    Aggregator.Op[] aops;
     Aggregator aggregator;
+    private TupleDesc td;
+    private Aggregator.Op[] merged;     /// the aggregates this one computes partial aggregates of, or null
+    private transient boolean empty;    /// no rows were read from the child
 
     /**
      * Constructor.
@@ -39,61 +48,185 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield }, HashAggregator.groupFields(gfield), new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates and group-by columns.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates, one per
+     *            aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("one field per aggregate operator");
         this.childs = new OpIterator[]{ child };
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        aggregator = newAggregator();
+
+        td = new TupleDesc(aggregator.iterator().getTupleDesc().getTypes(),
+                columnNames(child.getTupleDesc(), afields, gfields, aops));
+    }
+
+    /// the group by fields, named as in the child, then a column per aggregate value
+    private static String[] columnNames(TupleDesc childTD, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (int gfield : gfields)
+            names.add(childTD.getFieldName(gfield));
+        for (int i = 0; i < afields.length; i++) {
+            String field = "(" + childTD.getFieldName(afields[i]) + ")";
+            if (aops[i] == Aggregator.Op.SUM_COUNT) {
+                names.add(nameOfAggregatorOp(Aggregator.Op.SUM) + field);
+                names.add(nameOfAggregatorOp(Aggregator.Op.COUNT) + field);
+            } else {
+                names.add(nameOfAggregatorOp(aops[i]) + field);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Create an aggregate computing the partial aggregates of some of the
+     * rows of an aggregation, to be merged with those of the other rows by
+     * {@link #merging}. Without a group by, it returns no tuple at all if
+     * the child has no rows, rather than a tuple of empty aggregates.
+     *
+     * @param child
+     *            The OpIterator that is feeding us some of the rows.
+     * @see #Aggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public static Aggregate partial(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        Aggregator.Op[] partialOps = new Aggregator.Op[aops.length];
+        for (int i = 0; i < aops.length; i++)
+            partialOps[i] = aops[i] == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aops[i];
+        Aggregate a = new Aggregate(child, afields, gfields, partialOps);
+        a.merged = aops;
+        return a;
+    }
+
+    /**
+     * Create the aggregate merging the partial aggregates computed by
+     * aggregates like this one, created by {@link #partial}. It returns the
+     * tuples, named alike, that a single aggregate of all the rows would.
+     *
+     * @param partials
+     *            the tuples of all the partial aggregates, e.g. a
+     *            {@link Gather} of them
+     */
+    public Aggregate merging(OpIterator partials) {
+        if (merged == null)
+            throw new IllegalStateException("not a partial aggregate");
+        int[] groups = new int[gfields.length];
+        for (int i = 0; i < groups.length; i++)
+            groups[i] = i;
+        int[] values = new int[aops.length];
+        Aggregator.Op[] ops = new Aggregator.Op[aops.length];
+        int field = groups.length;
+        for (int i = 0; i < aops.length; i++) {
+            values[i] = field;
+            field += aops[i] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+            if (merged[i] == Aggregator.Op.COUNT)
+                ops[i] = Aggregator.Op.SUM;
+            else if (merged[i] == Aggregator.Op.AVG)
+                ops[i] = Aggregator.Op.SC_AVG;
+            else
+                ops[i] = merged[i];
+        }
+        Aggregate a = new Aggregate(partials, values, groups, ops);
+        a.td = new TupleDesc(a.td.getTypes(), columnNames(childs[0].getTupleDesc(), afields, gfields, merged));
+        return a;
+    }
 
-        TupleDesc td = child.getTupleDesc();
+    private Aggregator newAggregator() {
+        TupleDesc td = childs[0].getTupleDesc();
         Type[] types = td.getTypes();
-        Type gbType = gfield == NO_GROUPING ? null : types[gfield];
-        if (types[afield] == Type.INT_TYPE)
-            aggregator = new IntegerAggregator(gfield, gbType, afield, aop);
+        Type[] gbTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gbTypes[i] = types[gfields[i]];
+        if (afields.length > 1) {
+            Type[] aTypes = new Type[afields.length];
+            for (int i = 0; i < afields.length; i++)
+                aTypes[i] = types[afields[i]];
+            return new MultiAggregator(gfields, gbTypes, afields, aTypes, aops);
+        }
+        if (types[afields[0]] == Type.INT_TYPE)
+            return new IntegerAggregator(gfields, gbTypes, afields[0], aops[0]);
         else
-            aggregator = new StringAggregator(gfield, gbType, afield, aop);
+            return new StringAggregator(gfields, gbTypes, afields[0], aops[0]);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-        return gfield;
+        return gfields.length == 0 ? NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the groupby field indices in the <b>INPUT</b> tuples, in the
+     *         order of the <b>OUTPUT</b> tuples; empty if there is no groupby
+     * */
+    public int[] groupFields() {
+        return gfields;
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples. If
+     *         not, return null;
      * */
     public String groupFieldName() {
-	    if (gfield != NO_GROUPING)
-	        return childs[0].getTupleDesc().getFieldName(0);
+	    if (gfields.length > 0)
+	        return td.getFieldName(0);
 	    return null;
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
-        return afield;
+        return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return the aggregate fields, one per aggregate
+     * */
+    public int[] aggregateFields() {
+        return afields;
+    }
+
+    /**
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
-	// some code goes here
-	    return childs[0].getTupleDesc().getFieldName(1);
+	    return td.getFieldName(gfields.length);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate
+     * */
+    public Aggregator.Op[] aggregateOps() {
+        return aops;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -105,37 +238,46 @@ public class Aggregate extends Operator {
         super.open();
         OpIterator iterator = childs[0];
         iterator.open();
-        while (iterator.hasNext()) {
-            Tuple tuple = iterator.next();
-            aggregator.mergeTupleIntoGroup(tuple);
-        }
-        aggregator.iterator().open();
+        /// a fresh aggregator, as the last one's spill files are gone once it is closed
+        aggregator = newAggregator();
+        empty = true;
+        /// the Filters and Projects under this aggregate push their rows into it in one loop
+        new Pipeline(iterator).pushAll(batch -> {
+            aggregator.mergeBatchIntoGroup(batch);
+            empty = false;
+        });
+        if (!noPartials())
+            aggregator.iterator().open();
         //aggregator.iterator().open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. Its first fields are the fields by which we
+     * are grouping, if any, and the rest are the results of computing the
+     * aggregates, in order. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (noPartials())
+            return null;
 	    OpIterator iterator = aggregator.iterator();
 	    if (iterator.hasNext())
 	        return iterator.next();
 	    return null;
     }
 
+    /// a partial aggregate without a group by of no rows, which returns no tuple
+    private boolean noPartials() {
+        return merged != null && gfields.length == 0 && empty;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
-        aggregator.iterator().rewind();
+        if (!noPartials())
+            aggregator.iterator().rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, named as
+     * in the child, followed by the aggregate value columns.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -143,12 +285,13 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-	    return aggregator.iterator().getTupleDesc();
+	    return td;
     }
 
     public void close() {
         super.close();
         aggregator.iterator().close();
+        childs[0].close();
     }
 
     @Override
@@ -10,20 +10,19 @@ public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
     /**
-     * SUM_COUNT and SC_AVG will
-     * only be used in lab7, you are not required
-     * to implement them until then.
+     * SUM_COUNT and SC_AVG compute and merge the partial aggregates of an
+     * AVG, for aggregation in two phases (see Aggregate#partial).
      * */
     public enum Op implements Serializable {
         MIN, MAX, SUM, AVG, COUNT,
         /**
-         * SUM_COUNT: compute sum and count simultaneously, will be
-         * needed to compute distributed avg in lab7.
+         * SUM_COUNT: compute sum and count simultaneously, as the
+         * partial aggregates of a parallel or distributed avg.
          * */
         SUM_COUNT,
         /**
-         * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
-         * will be used to compute distributed avg in lab7.
+         * SC_AVG: compute the avg of a set of SUM_COUNT tuples, the
+         * sum of one field over the sum of the next.
          * */
         SC_AVG;
 
@@ -73,8 +72,21 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if the tuple must be spilled to disk and cannot be
      */
-    public void mergeTupleIntoGroup(Tuple tup);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Merge every row of a batch into the aggregate. This default merges
+     * them one tuple at a time.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     * @throws DbException if a row must be spilled to disk and cannot be
+     */
+    public default void mergeBatchIntoGroup(TupleBatch batch) throws DbException {
+        for (int r = 0; r < batch.size(); r++)
+            mergeTupleIntoGroup(batch.getTuple(r));
+    }
 
     /**
      * Create a OpIterator over group aggregate results.
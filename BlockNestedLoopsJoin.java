@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopsJoin computes a join with any predicate, like
+ * {@link Join}, but reads its outer child a block of tuples at a time and
+ * scans the inner child once per block rather than once per outer tuple.
+ * A block holds as many tuples as would fill a given number of pages, so
+ * joining R to S reads S about pages(R) / blockPages times instead of |R|
+ * times.
+ * <p>
+ * Output is ordered by inner tuple within a block, not by outer tuple.
+ */
+public class BlockNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages' worth of outer tuples held in a block, unless given. */
+    public static final int DEFAULT_BLOCK_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private final int blockTuples;
+
+    private transient ArrayList<Tuple> block;
+    /// join fields of the block, when both join fields are INTs
+    private transient int[] blockKeys;
+    private transient boolean intKeys;
+    private transient boolean more;             /// child1 has tuples past the block
+    private transient Tuple t2;
+    private transient int blockPos;             /// next block tuple to match with t2
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, with blocks of DEFAULT_BLOCK_PAGES pages.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopsJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blockPages
+     *            How many pages' worth of outer tuples to join to each scan
+     *            of the inner relation
+     * @see #BlockNestedLoopsJoin(JoinPredicate, OpIterator, OpIterator)
+     */
+    public BlockNestedLoopsJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        int perPage = Math.max(1, BufferPool.getPageSize() / child1.getTupleDesc().getSize());
+        this.blockTuples = Math.max(1, blockPages) * perPage;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /** @return the number of outer tuples joined per scan of the inner child. */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        block = new ArrayList<Tuple>();
+        blockKeys = intKeys ? new int[blockTuples] : null;
+        loadBlock();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        block = null;
+        blockKeys = null;
+        t2 = null;
+        probe = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        t2 = null;
+        probe = null;
+        loadBlock();
+    }
+
+    /**
+     * Read the next block of child1.
+     * @return false if child1 had no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext()) {
+            Tuple t = child1.next();
+            if (intKeys)
+                blockKeys[block.size()] = t.getInt(pred.getField1());
+            block.add(t);
+        }
+        more = block.size() == blockTuples;
+        return !block.isEmpty();
+    }
+
+    /**
+     * Child2 is done with the current block: load the next one and rescan
+     * child2 for it.
+     * @return false if there are no more blocks
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        if (!more || !loadBlock()) {
+            block.clear();
+            return false;
+        }
+        child2.rewind();
+        return true;
+    }
+
+    /**
+     * Joins every tuple of child2 to the tuples of the current block of
+     * child1 that satisfy the predicate, then moves on to the next block.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Predicate.Op op = pred.getOperator();
+        while (!block.isEmpty()) {
+            if (t2 != null) {
+                int n = block.size();
+                if (intKeys) {
+                    int v = t2.getInt(pred.getField2());
+                    while (blockPos < n && !IntField.compare(blockKeys[blockPos], op, v))
+                        blockPos++;
+                } else {
+                    while (blockPos < n && !pred.filter(block.get(blockPos), t2))
+                        blockPos++;
+                }
+                if (blockPos < n)
+                    return Tuple.merge(comboTD, block.get(blockPos++), t2);
+            }
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+            } else {
+                t2 = null;
+                nextBlock();
+            }
+        }
+        return null;
+    }
+
+    private transient TupleBatch out;
+    private transient TupleBatch probe;     /// the current batch of child2
+    private transient int probeRow;
+
+    /**
+     * Joins the current block to child2 a batch at a time.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE, false);
+        out.clear();
+        Predicate.Op op = pred.getOperator();
+        while (!out.isFull() && !block.isEmpty()) {
+            if (probe != null && probeRow < probe.size()) {
+                /// resume matching probe row probeRow from blockPos
+                int n = block.size();
+                if (intKeys) {
+                    int v = probe.getInts(pred.getField2())[probeRow];
+                    for (; blockPos < n && !out.isFull(); blockPos++) {
+                        if (IntField.compare(blockKeys[blockPos], op, v))
+                            out.addJoined(block.get(blockPos), probe, probeRow);
+                    }
+                } else {
+                    Field v = probe.getField(probeRow, pred.getField2());
+                    for (; blockPos < n && !out.isFull(); blockPos++) {
+                        Tuple t1 = block.get(blockPos);
+                        if (t1.getField(pred.getField1()).compare(op, v))
+                            out.addJoined(t1, probe, probeRow);
+                    }
+                }
+                if (blockPos == n) {
+                    probeRow++;
+                    blockPos = 0;
+                }
+                continue;
+            }
+            probe = child2.nextBatch();
+            probeRow = 0;
+            blockPos = 0;
+            if (probe == null)
+                nextBlock();
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
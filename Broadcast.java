@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Broadcast sends every row of its inputs to each of several consumers,
+ * for pipelines that all need the whole input, e.g. the build side of
+ * HashEquiJoins whose probe side is split by a {@link HashRepartition}.
+ * <p>
+ * The consumers share their inputs, which run while any consumer is open.
+ * A consumer cannot be rewound on its own; rewind the Gather above it.
+ */
+public class Broadcast extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(Channel channel, int consumer) {
+        super(channel, consumer);
+    }
+
+    /**
+     * Send one input to n consumers, running it on the common fork-join
+     * pool.
+     *
+     * @param input
+     *            the rows to send
+     * @param n
+     *            the number of consumers
+     * @return the consumers
+     */
+    public static Broadcast[] broadcast(OpIterator input, int n) {
+        return broadcast(new OpIterator[] { input }, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Send the rows of several inputs, which must have the same schema, to
+     * n consumers.
+     *
+     * @param pool
+     *            the pool to run the inputs on
+     * @see #broadcast(OpIterator, int)
+     */
+    public static Broadcast[] broadcast(OpIterator[] inputs, int n, ForkJoinPool pool) {
+        Channel channel = new Channel(inputs, n, -1, pool);
+        Broadcast[] consumers = new Broadcast[n];
+        for (int c = 0; c < n; c++)
+            consumers[c] = new Broadcast(channel, c);
+        return consumers;
+    }
+
+    /**
+     * @return the number of consumers every row is sent to
+     */
+    public int getConsumers() {
+        return channel.consumers();
+    }
+
+    public String getName() {
+        return "broadcast/" + channel.consumers();
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException("a Broadcast consumer cannot be rewound on its own");
+    }
+}
@@ -5,6 +5,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -89,7 +90,7 @@ public class BufferPool {
     {
         deadLockManager.tryLock(tid, pageInfo.getPageId(), permissions);
         pageInfo.acquireLock(tid, permissions);
-        deadLockManager.getLock(tid);
+        deadLockManager.getLock();
     }
 
     private void releaseLock(PageInfo pageInfo, TransactionId tid)
@@ -236,14 +237,20 @@ public class BufferPool {
         for (Map.Entry<PageId, PageInfo> entry : pagesMap.entrySet()) {
             PageId pageId = entry.getKey();
             PageInfo pageInfo = entry.getValue();
-            if (pageInfo.isDirty() && tid.equals(pageInfo.getOnwner())) {
+            /// pages evicted while locked have no content, and nothing to write
+            if (pageInfo.hasContent() && pageInfo.isDirty() && tid.equals(pageInfo.getOnwner())) {
                 if (commit) {
                     pageInfo.page.markDirty(false, null);
                     DbFile f = Database.getCatalog().getDatabaseFile(pageId.getTableId());
                     f.writePage(pageInfo.page);
-                } else
+                } else {
                     pageInfo.giveUpContent();
+                    /// rolled back changes may have freed room on the page
+                    DbFile f = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+                    if (f instanceof HeapFile)
+                        ((HeapFile) f).pageFreed(pageId.getPageNumber());
                     //discardPage(pageId);
+                }
             }
             releasePage(tid, pageId);
         }
@@ -270,7 +277,27 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> pages = f.insertTuple(tid, t);
-        pages.get(0).markDirty(true, tid);
+        for (Page page : pages)
+            page.markDirty(true, tid);
+    }
+
+    /**
+     * Add tuples to the specified table on behalf of transaction tid, as
+     * one batch: the file can fill pages in order, fetching and locking each
+     * page once rather than once per tuple. Like insertTuple, marks the pages
+     * that were dirtied as dirty.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> pages = f.insertTuples(tid, tuples);
+        for (Page page : pages)
+            page.markDirty(true, tid);
     }
 
     /**
@@ -291,7 +318,55 @@ public class BufferPool {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> pages = f.deleteTuple(tid, t);
-        pages.get(0).markDirty(true, tid);
+        for (Page page : pages)
+            page.markDirty(true, tid);
+    }
+
+    /**
+     * Set the given fields of tuple t to values in place, in the slot t
+     * occupies, on behalf of transaction tid. Will acquire a write lock on
+     * the page and mark it dirty.
+     *
+     * @param tid the transaction updating the tuple
+     * @param t the tuple to update, which carries its RecordId
+     * @param fields the indexes of the fields to set
+     * @param values the new values of those fields
+     * @return false, changing nothing, if t cannot be updated in place:
+     *         its table is not a HeapFile, or the changed tuple no longer
+     *         fits on its page
+     */
+    public boolean updateTuple(TransactionId tid, Tuple t, int[] fields, Field[] values)
+        throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        DbFile f = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        if (!(f instanceof HeapFile))
+            return false;
+        ArrayList<Page> pages = ((HeapFile) f).updateTuple(tid, rid, fields, values);
+        if (pages == null)
+            return false;
+        for (Page page : pages)
+            page.markDirty(true, tid);
+        return true;
+    }
+
+    /**
+     * Remove every tuple of the specified table that satisfies all of preds,
+     * on behalf of transaction tid, without reading the tuples out first:
+     * the predicates are evaluated inside each page, and only pages with
+     * matching tuples are locked for writing and marked dirty.
+     *
+     * @param tid the transaction deleting the tuples
+     * @param tableId the table to delete from, which must be a HeapFile
+     * @param preds the predicates, whose fields index the table's TupleDesc
+     * @return the number of tuples deleted
+     * @see HeapFile#deleteWhere
+     */
+    public int deleteWhere(TransactionId tid, int tableId, List<Predicate> preds)
+        throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile))
+            throw new DbException("deleteWhere: table is not a heap file!");
+        return ((HeapFile) f).deleteWhere(tid, preds);
     }
 
     /**
@@ -303,7 +378,7 @@ public class BufferPool {
         bufferLock.lock();
         Collection<PageInfo> pages = pagesMap.values();
         for (PageInfo pageInfo : pages)
-            flushPage(pageInfo.page.getId());
+            flushPage(pageInfo.getPageId());
         bufferLock.unlock();
     }
 
@@ -319,6 +394,34 @@ public class BufferPool {
         pagesMap.remove(pid);
     }
 
+    /**
+     * Remove the page from the buffer pool unless a transaction holds a lock
+     * on it or it is dirty. Used when a file drops pages, so that no stale
+     * copy outlives them.
+     *
+     * @return true if the page is not in the buffer pool any more
+     */
+    public boolean discardPageIfUnused(PageId pid) {
+        bufferLock.lock();
+        try {
+            PageInfo pageInfo = pagesMap.get(pid);
+            if (pageInfo == null)
+                return true;
+            if (!pageInfo.canReclaim() || (pageInfo.hasContent() && pageInfo.page.isDirty() != null))
+                return false;
+            if (pageInfo.next != pageInfo) {
+                pageInfo.prev.next = pageInfo.next;
+                pageInfo.next.prev = pageInfo.prev;
+                pageInfo.next = pageInfo.prev = pageInfo;
+                size--;
+            }
+            pagesMap.remove(pid);
+            return true;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
@@ -326,7 +429,7 @@ public class BufferPool {
     private void flushPage(PageId pid) throws IOException {
         PageInfo pageInfo = pagesMap.get(pid);
         Page page = pageInfo.page;
-        if (page.isDirty() != null) {
+        if (page != null && page.isDirty() != null) {
             int tableId = pid.getTableId();
             DbFile f = Database.getCatalog().getDatabaseFile(tableId);
             f.writePage(page);
@@ -0,0 +1,458 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BulkLoader converts a delimited text file into a heap file like
+ * HeapFileEncoder, but in parallel: the input is split into chunks at line
+ * boundaries, each chunk is parsed and packed into pages by a task on a
+ * fork-join pool, and the finished chunks are written in order with large
+ * sequential FileChannel writes.
+ * <p>
+ * Every chunk packs its own pages, so the last page of each chunk may be
+ * partly empty; with chunks of {@link #CHUNK_SIZE} bytes this wastes well
+ * under one percent of the file. Tables with declared string lengths are
+ * written in the slotted format, as by HeapFileEncoder.
+ * <p>
+ * The loader can also build the table's histograms in the same pass. Each
+ * chunk histograms its own values over its own range, and the chunk
+ * histograms are then merged, so bucket counts are exact up to the width of
+ * a chunk bucket.
+ */
+public class BulkLoader {
+
+    /** Bytes of input text parsed by one task. */
+    static final int CHUNK_SIZE = 8 << 20;
+
+    /** Buckets of the per-chunk INT histograms that are merged into the table's. */
+    static final int CHUNK_HIST_BINS = 1024;
+
+    /** What a load wrote, and the table's histograms if they were asked for. */
+    public static class Result {
+        public final int ntuples;
+        public final int npages;
+        final Object[] histograms;
+
+        Result(int ntuples, int npages, Object[] histograms) {
+            this.ntuples = ntuples;
+            this.npages = npages;
+            this.histograms = histograms;
+        }
+
+        /**
+         * @return TableStats for the loaded table, without scanning it again.
+         *         The table must be in the catalog.
+         * @throws IllegalStateException if the load did not build histograms
+         */
+        public TableStats getTableStats(int tableId, int ioCostPerPage) {
+            if (histograms == null)
+                throw new IllegalStateException("load did not build histograms");
+            return new TableStats(tableId, ioCostPerPage, histograms, ntuples);
+        }
+    }
+
+    /**
+     * Load inFile into outFile on the common fork-join pool.
+     *
+     * @see #load(File, File, int, TupleDesc, char, boolean, ForkJoinPool)
+     */
+    public static Result load(File inFile, File outFile, int npagebytes, TupleDesc td,
+                              char fieldSeparator, boolean buildStats) throws IOException {
+        return load(inFile, outFile, npagebytes, td, fieldSeparator, buildStats, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Load the delimited text file inFile into the heap file outFile.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param td the schema of the table
+     * @param fieldSeparator the character separating fields of a line
+     * @param buildStats whether to build histograms for TableStats
+     * @param pool the pool to parse and encode on
+     * @throws IOException if the input/output file can't be opened or a
+     *   malformed input line is encountered
+     */
+    public static Result load(File inFile, File outFile, int npagebytes, TupleDesc td,
+                              char fieldSeparator, boolean buildStats, ForkJoinPool pool) throws IOException {
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ArrayList<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            long size = in.size();
+            while (bounds.get(bounds.size() - 1) < size)
+                bounds.add(nextLineStart(in, bounds.get(bounds.size() - 1) + CHUNK_SIZE));
+
+            /// keep a bounded number of chunks in flight, and write them in input order
+            int window = 2 * pool.getParallelism();
+            ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+            Object[] histograms = buildStats ? newHistograms(td) : null;
+            int next = 0, ntuples = 0, npages = 0;
+            while (next < bounds.size() - 1 || !inFlight.isEmpty()) {
+                while (inFlight.size() < window && next < bounds.size() - 1) {
+                    inFlight.add(pool.submit(new Chunk(in, bounds.get(next), bounds.get(next + 1),
+                            npagebytes, td, (byte) fieldSeparator, buildStats)));
+                    next++;
+                }
+                Chunk chunk;
+                try {
+                    chunk = inFlight.poll().join();
+                } catch (UncheckedIOException e) {
+                    for (ForkJoinTask<Chunk> task : inFlight)
+                        task.cancel(true);
+                    throw e.getCause();
+                }
+
+                ByteBuffer buf = ByteBuffer.wrap(chunk.pages, 0, chunk.npages * npagebytes);
+                while (buf.hasRemaining())
+                    out.write(buf);
+                ntuples += chunk.ntuples;
+                npages += chunk.npages;
+                if (buildStats)
+                    chunk.mergeInto(histograms);
+            }
+
+            // if the file is empty, write an empty page, as HeapFileEncoder does
+            if (npages == 0) {
+                byte[] empty = td.isVariableLength()
+                        ? HeapPage.createSlottedPageData(td, new Tuple[0], npagebytes) : new byte[npagebytes];
+                out.write(ByteBuffer.wrap(empty));
+                npages = 1;
+            }
+
+            if (buildStats) {
+                for (int i = 0; i < histograms.length; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        if (histograms[i] == null)  /// no values at all
+                            histograms[i] = new IntHistogram(TableStats.NUM_HIST_BINS, 0, 0);
+                        ((IntHistogram) histograms[i]).calAggBuckets();
+                    } else
+                        ((StringHistogram) histograms[i]).getHist().calAggBuckets();
+                }
+            }
+            return new Result(ntuples, npages, histograms);
+        }
+    }
+
+    /**
+     * @return the offset of the first line starting at or after pos, or the
+     *         file size if there is none.
+     */
+    private static long nextLineStart(FileChannel in, long pos) throws IOException {
+        long size = in.size();
+        if (pos >= size)
+            return size;
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        /// pos starts a line if the byte before it ends one
+        long p = pos - 1;
+        while (p < size) {
+            buf.clear();
+            int n = in.read(buf, p);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n')
+                    return p + i + 1;
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    /**
+     * Create the table-wide histograms the chunk histograms are merged into;
+     * INT histograms start out without a range, which the first merge sets.
+     */
+    private static Object[] newHistograms(TupleDesc td) {
+        Object[] histograms = new Object[td.numFields()];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = td.getFieldType(i) == Type.INT_TYPE ? null : new StringHistogram(TableStats.NUM_HIST_BINS);
+        return histograms;
+    }
+
+    /**
+     * One chunk of the input: parsing it fills in its pages, tuple count and,
+     * when asked for, its own histograms.
+     */
+    private static class Chunk extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 1L;
+
+        final FileChannel in;
+        final long start, end;
+        final int npagebytes;
+        final TupleDesc td;
+        final byte sep;
+        final boolean buildStats;
+
+        byte[] pages;
+        int npages, ntuples;
+
+        /// for the chunk's histograms
+        int[][] intValues;
+        int nvalues;
+        StringHistogram[] strHists;
+
+        Chunk(FileChannel in, long start, long end, int npagebytes, TupleDesc td, byte sep, boolean buildStats) {
+            this.in = in;
+            this.start = start;
+            this.end = end;
+            this.npagebytes = npagebytes;
+            this.td = td;
+            this.sep = sep;
+            this.buildStats = buildStats;
+        }
+
+        @Override
+        protected Chunk compute() {
+            try {
+                byte[] text = new byte[(int) (end - start)];
+                ByteBuffer buf = ByteBuffer.wrap(text);
+                while (buf.hasRemaining()) {
+                    if (in.read(buf, start + buf.position()) < 0)
+                        throw new EOFException();
+                }
+
+                int n = td.numFields();
+                pages = new byte[Math.max(npagebytes, text.length + text.length / 2)];
+                if (buildStats) {
+                    intValues = new int[n][];
+                    strHists = new StringHistogram[n];
+                    for (int i = 0; i < n; i++) {
+                        if (td.getFieldType(i) == Type.INT_TYPE)
+                            intValues[i] = new int[1024];
+                        else
+                            strHists[i] = new StringHistogram(TableStats.NUM_HIST_BINS);
+                    }
+                }
+
+                if (td.isVariableLength())
+                    encodeSlotted(text);
+                else
+                    encodeFixed(text);
+                return this;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /** Pack the lines of text into fixed-format pages (see HeapPage). */
+        private void encodeFixed(byte[] text) throws IOException {
+            int n = td.numFields();
+            int nrecbytes = td.getSize();
+            int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+            int nheaderbytes = (nrecords + 7) / 8;
+
+            Field[] fields = new Field[n];
+            int[] bounds = new int[2 * n];
+            int slot = nrecords;    /// start a new page at the first line
+            int pos = 0;
+            while (pos < text.length) {
+                int lineEnd = pos;
+                while (lineEnd < text.length && text[lineEnd] != '\n')
+                    lineEnd++;
+                int lineStart = pos;
+                pos = lineEnd + 1;
+                if (lineEnd > lineStart && text[lineEnd - 1] == '\r')
+                    lineEnd--;
+                if (isBlank(text, lineStart, lineEnd))
+                    continue;
+
+                splitLine(text, lineStart, lineEnd, bounds);
+                if (slot == nrecords) {
+                    ensurePage(npages + 1);
+                    npages++;
+                    slot = 0;
+                }
+                int base = (npages - 1) * npagebytes;
+                pages[base + slot / 8] |= (byte) (1 << (slot % 8));
+                int off = base + nheaderbytes + slot * nrecbytes;
+                for (int i = 0; i < n; i++) {
+                    int s = bounds[2 * i], e = bounds[2 * i + 1];
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = parseInt(text, s, e, lineStart, lineEnd);
+                        writeInt(off, v);
+                        off += 4;
+                        if (buildStats)
+                            addInt(i, v);
+                    } else {
+                        int len = Math.min(e - s, Type.STRING_LEN);
+                        writeInt(off, len);
+                        System.arraycopy(text, s, pages, off + 4, len);
+                        off += Type.STRING_LEN + 4;
+                        if (buildStats)
+                            strHists[i].addValue(new String(text, s, len, "ISO-8859-1"));
+                    }
+                }
+                if (buildStats)
+                    nvalues++;
+                ntuples++;
+                slot++;
+            }
+        }
+
+        /** Pack the lines of text into slotted pages (see HeapPage). */
+        private void encodeSlotted(byte[] text) throws IOException {
+            ArrayList<Tuple> page = new ArrayList<Tuple>();
+            int used = HeapPage.SLOTTED_HEADER_SIZE;
+            int pos = 0;
+            while (pos < text.length) {
+                int lineEnd = pos;
+                while (lineEnd < text.length && text[lineEnd] != '\n')
+                    lineEnd++;
+                String line = new String(text, pos, lineEnd - pos, StandardCharsets.UTF_8);
+                pos = lineEnd + 1;
+                if (line.trim().isEmpty())
+                    continue;
+
+                Tuple t = HeapFileEncoder.parseLine(line, td, (char) (sep & 0xFF));
+                int size = HeapPage.SLOT_SIZE + HeapPage.getRecordSize(td, t);
+                if (used + size > npagebytes && !page.isEmpty()) {
+                    addSlottedPage(page);
+                    page.clear();
+                    used = HeapPage.SLOTTED_HEADER_SIZE;
+                }
+                page.add(t);
+                used += size;
+                ntuples++;
+
+                if (buildStats) {
+                    for (int i = 0; i < td.numFields(); i++) {
+                        if (td.getFieldType(i) == Type.INT_TYPE)
+                            addInt(i, ((IntField) t.getField(i)).getValue());
+                        else
+                            strHists[i].addValue(((StringField) t.getField(i)).getValue());
+                    }
+                    nvalues++;
+                }
+            }
+            if (!page.isEmpty())
+                addSlottedPage(page);
+        }
+
+        private void addSlottedPage(ArrayList<Tuple> tuples) {
+            ensurePage(npages + 1);
+            byte[] data = HeapPage.createSlottedPageData(td, tuples.toArray(new Tuple[0]), npagebytes);
+            System.arraycopy(data, 0, pages, npages * npagebytes, npagebytes);
+            npages++;
+        }
+
+        private void ensurePage(int count) {
+            if ((long) count * npagebytes > pages.length) {
+                byte[] bigger = new byte[Math.max(count * npagebytes, pages.length * 2)];
+                System.arraycopy(pages, 0, bigger, 0, npages * npagebytes);
+                pages = bigger;
+            }
+        }
+
+        private void writeInt(int off, int v) {
+            pages[off] = (byte) (v >>> 24);
+            pages[off + 1] = (byte) (v >>> 16);
+            pages[off + 2] = (byte) (v >>> 8);
+            pages[off + 3] = (byte) v;
+        }
+
+        private void addInt(int field, int v) {
+            if (nvalues == intValues[field].length)
+                intValues[field] = java.util.Arrays.copyOf(intValues[field], nvalues * 2);
+            intValues[field][nvalues] = v;
+        }
+
+        /**
+         * Split text[lineStart, lineEnd) at the separator, storing the
+         * trimmed start and end of field i in bounds[2i] and bounds[2i+1].
+         */
+        private void splitLine(byte[] text, int lineStart, int lineEnd, int[] bounds) throws IOException {
+            int n = bounds.length / 2;
+            int field = 0, s = lineStart;
+            for (int i = lineStart; i <= lineEnd; i++) {
+                if (i == lineEnd || text[i] == sep) {
+                    if (field == n)
+                        throw badLine(text, lineStart, lineEnd);
+                    int a = s, b = i;
+                    while (a < b && text[a] <= ' ')
+                        a++;
+                    while (b > a && text[b - 1] <= ' ')
+                        b--;
+                    bounds[2 * field] = a;
+                    bounds[2 * field + 1] = b;
+                    field++;
+                    s = i + 1;
+                }
+            }
+            if (field != n)
+                throw badLine(text, lineStart, lineEnd);
+        }
+
+        private int parseInt(byte[] text, int s, int e, int lineStart, int lineEnd) throws IOException {
+            boolean neg = s < e && text[s] == '-';
+            int i = neg || (s < e && text[s] == '+') ? s + 1 : s;
+            if (i == e || e - i > 10)
+                throw badLine(text, lineStart, lineEnd);
+            long v = 0;
+            for (; i < e; i++) {
+                int d = text[i] - '0';
+                if (d < 0 || d > 9)
+                    throw badLine(text, lineStart, lineEnd);
+                v = v * 10 + d;
+            }
+            v = neg ? -v : v;
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+                throw badLine(text, lineStart, lineEnd);
+            return (int) v;
+        }
+
+        private static boolean isBlank(byte[] text, int s, int e) {
+            for (int i = s; i < e; i++) {
+                if (text[i] > ' ')
+                    return false;
+            }
+            return true;
+        }
+
+        private static IOException badLine(byte[] text, int s, int e) throws IOException {
+            return new IOException("BAD LINE : " + new String(text, s, e - s, "ISO-8859-1"));
+        }
+
+        /** Merge this chunk's histograms into the table-wide ones. */
+        void mergeInto(Object[] histograms) {
+            for (int i = 0; i < histograms.length; i++) {
+                if (strHists[i] != null) {
+                    ((StringHistogram) histograms[i]).getHist().addAll(strHists[i].getHist());
+                    continue;
+                }
+                if (nvalues == 0)
+                    continue;
+
+                int[] values = intValues[i];
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (int j = 0; j < nvalues; j++) {
+                    min = Math.min(min, values[j]);
+                    max = Math.max(max, values[j]);
+                }
+                IntHistogram local = new IntHistogram(CHUNK_HIST_BINS, min, max);
+                for (int j = 0; j < nvalues; j++)
+                    local.addValue(values[j]);
+
+                IntHistogram global = (IntHistogram) histograms[i];
+                if (global == null)
+                    histograms[i] = global = new IntHistogram(TableStats.NUM_HIST_BINS, min, max);
+                else if (min < global.getMin() || max >= global.getMax())
+                    histograms[i] = global = global.rebucket(Math.min(min, global.getMin()),
+                            Math.max(max, global.getMax() - 1));
+                global.addAll(local);
+            }
+        }
+    }
+}
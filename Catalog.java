@@ -153,6 +153,8 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table line may end with "columnar" after its column list to store the
+     * table in a ColumnFile rather than a HeapFile.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -165,19 +167,31 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
+                /// an optional storage annotation follows the column list
+                String storage = line.substring(line.lastIndexOf(")") + 1).trim().toLowerCase();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                int[] maxLens = new int[els.length];
+                boolean declaresLen = false;
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
+                    String typeName = els2[1].trim().toLowerCase();
+                    if (typeName.equals("int")) {
+                        maxLens[types.size()] = Type.INT_TYPE.getLen();
                         types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
+                    } else if (typeName.equals("string")) {
+                        maxLens[types.size()] = Type.STRING_LEN;
                         types.add(Type.STRING_TYPE);
-                    else {
+                    } else if (typeName.matches("string\\(\\d+\\)")) {
+                        /// string(n) declares a max length: the table is stored in slotted pages
+                        maxLens[types.size()] = Integer.parseInt(typeName.substring(7, typeName.length() - 1));
+                        types.add(Type.STRING_TYPE);
+                        declaresLen = true;
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -192,8 +206,18 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                TupleDesc t = declaresLen ? new TupleDesc(typeAr, namesAr, maxLens)
+                        : new TupleDesc(typeAr, namesAr);
+                DbFile tabHf;
+                if (storage.equals("columnar"))
+                    tabHf = new ColumnFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else if (storage.isEmpty())
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -203,6 +227,10 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            /// a string(n) too long for its records to be stored
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
 }
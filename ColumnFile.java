@@ -0,0 +1,354 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in its own chain
+ * of pages, so a scan that needs only a few columns reads only their pages.
+ * <p>
+ * A row is identified by its position. The file f itself holds the row chain,
+ * a bitmap recording which rows exist (see ColumnPage); column i's values are
+ * stored, in row order, in the file named f plus ".col" + i. Deleting a row
+ * clears its bit, and inserts reuse the first free row.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+    /** The chain number of the row bitmap chain in a ColumnPageId. */
+    public static final int ROW_CHAIN = -1;
+
+    File f;
+    RandomAccessFile rowFile;
+    RandomAccessFile[] colFiles;
+    TupleDesc tupleDesc;
+
+    AtomicInteger version = new AtomicInteger(0);
+
+    int numRowPages;
+    ReentrantReadWriteLock.ReadLock rLock;
+    ReentrantReadWriteLock.WriteLock wLock;
+
+    /**
+     * Constructs a column file backed by the file f and one file per column
+     * next to it.
+     *
+     * @param f
+     *            the file that stores the row chain of this column file.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        tupleDesc = td;
+        colFiles = new RandomAccessFile[td.numFields()];
+        try {
+            rowFile = new RandomAccessFile(f, "rw");
+            for (int i = 0; i < colFiles.length; i++)
+                colFiles[i] = new RandomAccessFile(getColumnFile(i), "rw");
+        } catch (FileNotFoundException e) {
+            System.out.println("Failed at create ColumnFile!");
+        }
+
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        rLock = lock.readLock();
+        wLock = lock.writeLock();
+
+        int pageSize = BufferPool.getPageSize();
+        numRowPages = (int) ((f.length() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * @return the file storing the values of column i.
+     */
+    public File getColumnFile(int i) {
+        return new File(f.getPath() + ".col" + i);
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public int getVersion() {
+        return version.get();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * @return the number of pages of the row chain.
+     */
+    public int numRowPages() {
+        rLock.lock();
+        int n = numRowPages;
+        rLock.unlock();
+        return n;
+    }
+
+    /**
+     * @return the number of pages of column i's chain.
+     */
+    public int numColumnPages(int i) {
+        int pageSize = BufferPool.getPageSize();
+        try {
+            return (int) ((colFiles[i].length() + pageSize - 1) / pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this ColumnFile, over all chains.
+     */
+    public int numPages() {
+        int n = numRowPages();
+        for (int i = 0; i < colFiles.length; i++)
+            n += numColumnPages(i);
+        return n;
+    }
+
+    private RandomAccessFile getChain(int column) {
+        return column == ROW_CHAIN ? rowFile : colFiles[column];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int pageNo = cpid.getPageNumber();
+        if (pageNo < 0 || cpid.getColumn() < ROW_CHAIN || cpid.getColumn() >= colFiles.length)
+            throw new IllegalArgumentException();
+
+        try {
+            int pageSize = BufferPool.getPageSize();
+            byte[] data = new byte[pageSize];
+            RandomAccessFile raf = getChain(cpid.getColumn());
+            synchronized (raf) {
+                /// pages past the end of a column chain have not been written yet: read as empty
+                long offset = (long) pageNo * pageSize;
+                if (offset < raf.length()) {
+                    raf.seek(offset);
+                    raf.readFully(data, 0, (int) Math.min(pageSize, raf.length() - offset));
+                }
+            }
+            return new ColumnPage(cpid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        int pageSize = BufferPool.getPageSize();
+        RandomAccessFile raf = getChain(cpid.getColumn());
+        synchronized (raf) {
+            raf.seek((long) cpid.getPageNumber() * pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(tupleDesc))
+            throw new DbException("insertTuple: tupleDesc mismatch!");
+
+        int tableId = getId();
+        BufferPool bufferPool = Database.getBufferPool();
+        /// look for a free row in the pages not looked at yet, adding a page when there is none
+        for (int first = 0; ; ) {
+            int n = numRowPages();
+            for (int i = first; i < n; i++) {
+                ColumnPageId pageId = new ColumnPageId(tableId, ROW_CHAIN, i);
+                ColumnPage rowPage = (ColumnPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+                int slot = rowPage.getFreeRow();
+                if (slot < 0) {
+                    bufferPool.releasePage(tid, pageId);
+                    continue;
+                }
+                ArrayList<Page> pages = writeRow(tid, rowPage, slot, t);
+                version.getAndIncrement();
+                return pages;
+            }
+            first = n;
+
+            wLock.lock();
+            try {
+                /// unless another insert added pages meanwhile
+                if (numRowPages == n) {
+                    rowFile.setLength((long) (numRowPages + 1) * BufferPool.getPageSize());
+                    numRowPages++;
+                }
+            } finally {
+                wLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Mark row slot of rowPage as existing and store t's values as that
+     * row in every column chain.
+     */
+    private ArrayList<Page> writeRow(TransactionId tid, ColumnPage rowPage, int slot, Tuple t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> pages = new ArrayList<>();
+        rowPage.setRowPresent(slot, true);
+        pages.add(rowPage);
+
+        int tableId = getId();
+        long row = (long) rowPage.getId().getPageNumber() * ColumnPage.getRowsPerPage() + slot;
+        for (int i = 0; i < colFiles.length; i++) {
+            int perPage = ColumnPage.getNumValues(tupleDesc.getFieldType(i));
+            ColumnPageId pageId = new ColumnPageId(tableId, i, (int) (row / perPage));
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+            page.setValue((int) (row % perPage), t.getField(i));
+            pages.add(page);
+        }
+        t.setRecordId(new RecordId(rowPage.getId(), slot));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        /// only the record id matters, so tuples of a projecting scan can be deleted too
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId())
+            throw new DbException("deleteTuple: tuple is not in this table!");
+
+        ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        if (!page.isRowPresent(rid.getTupleNumber()))
+            throw new DbException("deleteTuple: row already deleted!");
+        page.setRowPresent(rid.getTupleNumber(), false);
+        version.getAndIncrement();
+        return new ArrayList<Page>() {{ add(page); }};
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads only the
+     * given columns' chains. The tuples have the given columns only, in the
+     * given order; see {@link #getTupleDesc(int[])}.
+     *
+     * @param columns the columns to read, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns == null) {
+            columns = new int[tupleDesc.numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = i;
+        }
+        return ColumnFileScanIterator.newColumnFileScanIterator(tid, this, columns);
+    }
+
+    /**
+     * @return the TupleDesc of tuples holding only the given columns of this
+     *         file, in the given order.
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = tupleDesc.getFieldType(columns[i]);
+            names[i] = tupleDesc.getFieldNames() == null ? null : tupleDesc.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+}
+
+class ColumnFileScanIterator extends AbstractDbFileIterator {
+    ColumnFile cf;
+    TransactionId tid;
+    int[] columns;
+    int[] perPage;
+    TupleDesc td;
+
+    int rowPgNo;
+    int slot;
+    ColumnPage rowPage;
+    ColumnPage[] colPages;
+
+    static ColumnFileScanIterator newColumnFileScanIterator(TransactionId tid, ColumnFile file, int[] columns)
+    {
+        ColumnFileScanIterator iterator = new ColumnFileScanIterator();
+        iterator.cf = file;
+        iterator.tid = tid;
+        iterator.columns = columns;
+        iterator.td = columns.length == file.getTupleDesc().numFields() ? file.getTupleDesc()
+                : file.getTupleDesc(columns);
+        iterator.perPage = new int[columns.length];
+        for (int i = 0; i < columns.length; i++)
+            iterator.perPage[i] = ColumnPage.getNumValues(file.getTupleDesc().getFieldType(columns[i]));
+        iterator.rowPgNo = -1;
+        iterator.colPages = null;
+        return iterator;
+    }
+
+    @Override
+    public Tuple readNext() throws DbException, TransactionAbortedException {
+        if (colPages == null) // not yet opened, or closed
+            return null;
+
+        BufferPool bufferPool = Database.getBufferPool();
+        while (true) {
+            if (rowPage == null) {
+                if (++rowPgNo >= cf.numRowPages())
+                    return null;
+                ColumnPageId pageId = new ColumnPageId(cf.getId(), ColumnFile.ROW_CHAIN, rowPgNo);
+                rowPage = (ColumnPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+                slot = -1;
+            }
+            slot = rowPage.nextPresentRow(slot + 1);
+            if (slot < 0) {
+                rowPage = null;
+                continue;
+            }
+
+            long row = (long) rowPgNo * ColumnPage.getRowsPerPage() + slot;
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < columns.length; i++) {
+                int pageNo = (int) (row / perPage[i]);
+                if (colPages[i] == null || colPages[i].getId().getPageNumber() != pageNo) {
+                    ColumnPageId pageId = new ColumnPageId(cf.getId(), columns[i], pageNo);
+                    colPages[i] = (ColumnPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+                }
+                t.setField(i, colPages[i].getValue((int) (row % perPage[i])));
+            }
+            t.setRecordId(new RecordId(rowPage.getId(), slot));
+            return t;
+        }
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        rowPgNo = -1;
+        rowPage = null;
+        colPages = new ColumnPage[columns.length];
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        rowPage = null;
+        colPages = null;
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * ColumnPage is a page of a ColumnFile. What it holds depends on its chain:
+ * <ul>
+ * <li>a row page (chain {@link ColumnFile#ROW_CHAIN}) is a bitmap with one
+ * bit per row, set if the row exists;</li>
+ * <li>a column page holds consecutive values of one column, each in the
+ * fixed-size format of its Type.</li>
+ * </ul>
+ * Row r of the table is bit r % rowsPerPage of row page r / rowsPerPage, and
+ * its value for column c is slot r % valuesPerPage(c) of page r /
+ * valuesPerPage(c) of c's chain.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;            /// null for a row page
+    byte[] bitmap;              /// row pages
+    Field[] values;             /// column pages
+
+    byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    boolean isDirty;
+    TransactionId transactionId;
+
+    /**
+     * Create a ColumnPage from the bytes read from disk. The column's type
+     * is taken from the catalog.
+     *
+     * @see BufferPool#getPageSize()
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        if (id.getColumn() == ColumnFile.ROW_CHAIN) {
+            type = null;
+            bitmap = data.clone();
+        } else {
+            type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+            values = new Field[getNumValues(type)];
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            try {
+                for (int i = 0; i < values.length; i++)
+                    values[i] = type.parse(dis);
+            } catch (ParseException e) {
+                throw new IOException("parsing error in " + id, e);
+            }
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of rows covered by one row page */
+    public static int getRowsPerPage() {
+        return BufferPool.getPageSize() * 8;
+    }
+
+    /** @return the number of values of type t that fit on one column page */
+    public static int getNumValues(Type t) {
+        return BufferPool.getPageSize() / t.getLen();
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        if (type == null)
+            return bitmap.clone();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (Field f : values)
+                f.serialize(dos);
+            dos.write(new byte[BufferPool.getPageSize() - values.length * type.getLen()]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        isDirty = dirty;
+        if (dirty)
+            transactionId = tid;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? transactionId : null;
+    }
+
+    /// row pages
+
+    /** @return true if row i of this row page exists */
+    public boolean isRowPresent(int i) {
+        return (bitmap[i >> 3] & (1 << (i & 7))) != 0;
+    }
+
+    public void setRowPresent(int i, boolean present) {
+        if (present)
+            bitmap[i >> 3] |= (1 << (i & 7));
+        else
+            bitmap[i >> 3] &= ~(1 << (i & 7));
+    }
+
+    /**
+     * @return the first row at or after from that exists, or -1 if none does.
+     */
+    public int nextPresentRow(int from) {
+        for (int b = from >> 3; b < bitmap.length; b++) {
+            int bits = bitmap[b] & 0xFF;
+            if (b == from >> 3)
+                bits &= 0xFF << (from & 7);
+            if (bits != 0)
+                return (b << 3) + Integer.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    /** @return the first row of this row page that does not exist, or -1 if the page is full. */
+    public int getFreeRow() {
+        for (int b = 0; b < bitmap.length; b++) {
+            if (bitmap[b] != (byte) 0xFF)
+                return (b << 3) + Integer.numberOfTrailingZeros(~bitmap[b] & 0xFF);
+        }
+        return -1;
+    }
+
+    /** @return the number of rows on this row page that exist */
+    public int getNumRows() {
+        int n = 0;
+        for (byte b : bitmap)
+            n += Integer.bitCount(b & 0xFF);
+        return n;
+    }
+
+    /// column pages
+
+    public Field getValue(int i) {
+        return values[i];
+    }
+
+    public void setValue(int i, Field f) throws DbException {
+        if (f.getType() != type)
+            throw new DbException("setValue: type mismatch!");
+        if (type == Type.STRING_TYPE)  /// values are stored at the fixed string length
+            f = new StringField(((StringField) f).getValue(), Type.STRING_LEN);
+        values[i] = f;
+    }
+
+    public String toString() {
+        if (type == null)
+            return pid + " rows=" + getNumRows();
+        return pid + " " + Arrays.toString(values);
+    }
+}
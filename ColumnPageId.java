@@ -0,0 +1,71 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: a page of one chain of a ColumnFile. */
+public class ColumnPageId implements PageId {
+
+    int tableId;
+    int column;
+    int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific chain of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column whose chain holds the page, or
+     *        {@link ColumnFile#ROW_CHAIN} for the row bitmap chain
+     * @param pgNo The page number within that chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose chain this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /** @return the page number of this page within its chain */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return (tableId << 16) ^ ((column + 1) << 24) ^ (pageNo & 0x0FFFF);
+    }
+
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (o instanceof ColumnPageId) {
+            ColumnPageId other = (ColumnPageId) o;
+            return other.pageNo == pageNo && other.column == column && other.tableId == tableId;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[3];
+
+        data[0] = tableId;
+        data[1] = column;
+        data[2] = pageNo;
+
+        return data;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNo + ")";
+    }
+}
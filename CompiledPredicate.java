@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A conjunction of predicates compiled for the schema of the tuples it
+ * tests. Each predicate becomes a test specialized for the type of its
+ * field and for its operator when compiled, so that evaluating it neither
+ * switches on the operator, nor looks up the field's type, nor calls
+ * Field.compare.
+ * <p>
+ * Over tuples, the tests are composed into one MethodHandle per
+ * conjunction, each test guarding the next, which the JIT compiles for that
+ * conjunction alone: a loop over the tests would share one call site among
+ * all the tests of all conjunctions, too polymorphic to be inlined.
+ * <p>
+ * The predicates are evaluated together, INT comparisons first: over a
+ * batch, the INT ones are combined into one selection bitmap, the others
+ * are tested on the rows that pass them only, and the batch is compacted
+ * once for all of them.
+ */
+public class CompiledPredicate {
+
+    /// a predicate on an INT value
+    private interface IntTest {
+        boolean test(int v);
+    }
+
+    /// a predicate on a STRING value
+    private interface StringTest {
+        boolean test(String s);
+    }
+
+    private static final MethodHandle GET_INT, GET_FIELD, GET_STRING, INT_TEST, STRING_TEST, FILTER;
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            GET_INT = lookup.findVirtual(Tuple.class, "getInt", MethodType.methodType(int.class, int.class));
+            GET_FIELD = lookup.findVirtual(Tuple.class, "getField", MethodType.methodType(Field.class, int.class));
+            GET_STRING = lookup.findVirtual(StringField.class, "getValue", MethodType.methodType(String.class));
+            INT_TEST = lookup.findVirtual(IntTest.class, "test", MethodType.methodType(boolean.class, int.class));
+            STRING_TEST = lookup.findVirtual(StringTest.class, "test", MethodType.methodType(boolean.class, String.class));
+            FILTER = lookup.findVirtual(Predicate.class, "filter", MethodType.methodType(boolean.class, Tuple.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandle conjunction; /// (Tuple)boolean: the INT tests, then the others
+
+    /// over batches: comparisons of INT columns with constants, run by IntColumnFilter
+    private final int[] intFields;
+    private final Predicate.Op[] intOps;
+    private final int[] intOperands;
+    /// and the other predicates, on the values of their column
+    private final int[] otherFields;
+    private final StringTest[] stringTests;     /// null entries: test with Field.compare
+    private final Predicate[] otherPredicates;
+
+    private transient long[] scratch;   /// bitmap of the INT comparison being added to the batch's
+
+    /**
+     * Compile the conjunction of predicates over tuples of schema td.
+     */
+    public CompiledPredicate(List<Predicate> predicates, TupleDesc td) {
+        ArrayList<Predicate> ints = new ArrayList<Predicate>(), others = new ArrayList<Predicate>();
+        for (Predicate p : predicates) {
+            if (td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField)
+                ints.add(p);
+            else
+                others.add(p);
+        }
+
+        MethodHandle[] tests = new MethodHandle[predicates.size()];
+        intFields = new int[ints.size()];
+        intOps = new Predicate.Op[ints.size()];
+        intOperands = new int[ints.size()];
+        for (int i = 0; i < ints.size(); i++) {
+            Predicate p = ints.get(i);
+            intFields[i] = p.getField();
+            intOps[i] = p.getOp();
+            intOperands[i] = ((IntField) p.getOperand()).getValue();
+            MethodHandle test = INT_TEST.bindTo(intTest(intOps[i], intOperands[i]));
+            tests[i] = MethodHandles.filterArguments(test, 0, MethodHandles.insertArguments(GET_INT, 1, intFields[i]));
+        }
+
+        otherFields = new int[others.size()];
+        stringTests = new StringTest[others.size()];
+        otherPredicates = others.toArray(new Predicate[others.size()]);
+        for (int i = 0; i < others.size(); i++) {
+            Predicate p = others.get(i);
+            int field = p.getField();
+            otherFields[i] = field;
+            if (td.getFieldType(field) == Type.STRING_TYPE && p.getOperand() instanceof StringField) {
+                stringTests[i] = stringTest(p.getOp(), ((StringField) p.getOperand()).getValue());
+                MethodHandle value = MethodHandles.insertArguments(GET_FIELD, 1, field)
+                        .asType(MethodType.methodType(StringField.class, Tuple.class));
+                value = MethodHandles.filterReturnValue(value, GET_STRING);
+                tests[ints.size() + i] = MethodHandles.filterArguments(STRING_TEST.bindTo(stringTests[i]), 0, value);
+            } else {
+                tests[ints.size() + i] = FILTER.bindTo(p);
+            }
+        }
+
+        /// t -> tests[0](t) && (tests[1](t) && ...)
+        MethodHandle fail = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, Tuple.class);
+        MethodHandle rest = tests.length == 0
+                ? MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, Tuple.class)
+                : tests[tests.length - 1];
+        for (int i = tests.length - 2; i >= 0; i--)
+            rest = MethodHandles.guardWithTest(tests[i], rest, fail);
+        conjunction = rest;
+    }
+
+    private static IntTest intTest(Predicate.Op op, int v) {
+        switch (op) {
+        case EQUALS: case LIKE: return x -> x == v;
+        case NOT_EQUALS: return x -> x != v;
+        case GREATER_THAN: return x -> x > v;
+        case GREATER_THAN_OR_EQ: return x -> x >= v;
+        case LESS_THAN: return x -> x < v;
+        case LESS_THAN_OR_EQ: return x -> x <= v;
+        default: throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /// as StringField.compare
+    private static StringTest stringTest(Predicate.Op op, String v) {
+        switch (op) {
+        case EQUALS: return s -> s.equals(v);
+        case NOT_EQUALS: return s -> !s.equals(v);
+        case GREATER_THAN: return s -> s.compareTo(v) > 0;
+        case GREATER_THAN_OR_EQ: return s -> s.compareTo(v) >= 0;
+        case LESS_THAN: return s -> s.compareTo(v) < 0;
+        case LESS_THAN_OR_EQ: return s -> s.compareTo(v) <= 0;
+        case LIKE: return s -> s.contains(v);
+        default: throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /**
+     * @return whether t satisfies every predicate.
+     */
+    public boolean test(Tuple t) {
+        try {
+            return (boolean) conjunction.invokeExact(t);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Drops the rows of batch b that do not satisfy every predicate.
+     */
+    public void filter(TupleBatch b) {
+        int n = b.size();
+        int[] sel = b.selection();
+        int k;
+        if (intFields.length > 0) {
+            long[] bitmap = b.bitmap();
+            IntColumnFilter.select(b.getInts(intFields[0]), n, intOps[0], intOperands[0], bitmap);
+            int words = IntColumnFilter.words(n);
+            for (int i = 1; i < intFields.length; i++) {
+                if (scratch == null || scratch.length < bitmap.length)
+                    scratch = new long[bitmap.length];
+                IntColumnFilter.select(b.getInts(intFields[i]), n, intOps[i], intOperands[i], scratch);
+                for (int w = 0; w < words; w++)
+                    bitmap[w] &= scratch[w];
+            }
+            k = IntColumnFilter.toSelection(bitmap, n, sel);
+        } else {
+            for (int r = 0; r < n; r++)
+                sel[r] = r;
+            k = n;
+        }
+
+        for (int i = 0; i < otherFields.length && k > 0; i++) {
+            int kept = 0;
+            StringTest s = stringTests[i];
+            if (s != null) {
+                Field[] col = b.getFields(otherFields[i]);
+                for (int j = 0; j < k; j++) {
+                    if (s.test(((StringField) col[sel[j]]).getValue()))
+                        sel[kept++] = sel[j];
+                }
+            } else {
+                Predicate p = otherPredicates[i];
+                for (int j = 0; j < k; j++) {
+                    if (b.getField(sel[j], otherFields[i]).compare(p.getOp(), p.getOperand()))
+                        sel[kept++] = sel[j];
+                }
+            }
+            k = kept;
+        }
+        b.keep(sel, k);
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CompressedPageFile is the on-disk store behind a compressed HeapFile.
+ * <p>
+ * Pages are compressed one at a time with LZCodec and appended to the data
+ * file; because their compressed sizes differ, a page-offset map in a file
+ * next to it (the data file name plus ".map") records, for each page number,
+ * an 8-byte offset and a 4-byte length. A length equal to the page size means
+ * the page did not compress and is stored raw.
+ * <p>
+ * A page rewritten with an image that still fits its extent in the data
+ * file is written in place. One that outgrows it moves, once, to a new
+ * extent of a whole page at the end of the file, and its old extent is
+ * left behind as dead space until the file is rewritten from scratch with
+ * {@link #compress}: a page that is updated keeps little of its
+ * compression, so the file is meant for cold data that is mostly read.
+ * {@link #truncate} only gives back the space past the last live extent.
+ */
+class CompressedPageFile {
+    static final String MAP_SUFFIX = ".map";
+    static final int MAP_ENTRY_SIZE = 12;
+
+    private final RandomAccessFile data;
+    private final RandomAccessFile map;
+    private final int pageSize;
+
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;   /// bytes of each page's extent, at least its length
+    private int numPages;
+
+    CompressedPageFile(File f, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        data = new RandomAccessFile(f, "rw");
+        map = new RandomAccessFile(mapFile(f), "rw");
+
+        numPages = (int) (map.length() / MAP_ENTRY_SIZE);
+        offsets = new long[Math.max(numPages, 16)];
+        lengths = new int[offsets.length];
+        capacities = new int[offsets.length];
+        byte[] entries = new byte[numPages * MAP_ENTRY_SIZE];
+        map.seek(0);
+        map.readFully(entries);
+        ByteBuffer buf = ByteBuffer.wrap(entries);
+        for (int i = 0; i < numPages; i++) {
+            offsets[i] = buf.getLong();
+            lengths[i] = buf.getInt();
+        }
+
+        /// an extent reaches up to the next one, or to the end of the file
+        Integer[] byOffset = new Integer[numPages];
+        for (int i = 0; i < numPages; i++)
+            byOffset[i] = i;
+        Arrays.sort(byOffset, (a, b) -> Long.compare(offsets[a], offsets[b]));
+        long end = data.length();
+        for (int i = numPages - 1; i >= 0; i--) {
+            int p = byOffset[i];
+            capacities[p] = (int) Math.min(Integer.MAX_VALUE, Math.max(lengths[p], end - offsets[p]));
+            end = offsets[p];
+        }
+    }
+
+    static File mapFile(File f) {
+        return new File(f.getPath() + MAP_SUFFIX);
+    }
+
+    /**
+     * @return true if f has a page-offset map next to it, i.e. it was
+     *         written as a compressed heap file.
+     */
+    static boolean isCompressed(File f) {
+        return mapFile(f).exists();
+    }
+
+    synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of bytes page pageNo occupies on disk.
+     */
+    synchronized int storedLength(int pageNo) {
+        return lengths[pageNo];
+    }
+
+    synchronized byte[] readPage(int pageNo) throws IOException {
+        if (pageNo < 0 || pageNo >= numPages)
+            throw new IllegalArgumentException("page " + pageNo + " out of range");
+
+        int len = lengths[pageNo];
+        byte[] buf = new byte[len];
+        data.seek(offsets[pageNo]);
+        data.readFully(buf);
+        if (len == pageSize)
+            return buf;
+        return LZCodec.decompress(buf, 0, len, pageSize);
+    }
+
+    /**
+     * Write the uncompressed page data as page pageNo, which must be an
+     * existing page or the next page past the end of the file.
+     */
+    synchronized void writePage(int pageNo, byte[] page) throws IOException {
+        if (pageNo < 0 || pageNo > numPages)
+            throw new IllegalArgumentException("page " + pageNo + " out of range");
+
+        byte[] out = LZCodec.compress(page);
+        if (out.length >= pageSize)
+            out = page;
+
+        boolean added = pageNo == numPages;
+        if (added) {
+            if (numPages == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numPages * 2);
+                lengths = Arrays.copyOf(lengths, numPages * 2);
+                capacities = Arrays.copyOf(capacities, numPages * 2);
+            }
+            capacities[numPages++] = 0;
+        }
+        long offset = offsets[pageNo];
+        if (out.length > capacities[pageNo]) {
+            /// a new extent at the end; a page that outgrew its extent gets room for a raw page
+            offset = data.length();
+            capacities[pageNo] = added ? out.length : pageSize;
+            data.setLength(offset + capacities[pageNo]);
+        }
+        data.seek(offset);
+        data.write(out);
+        offsets[pageNo] = offset;
+        lengths[pageNo] = out.length;
+
+        /// data first, then the map entry pointing at it
+        map.seek((long) pageNo * MAP_ENTRY_SIZE);
+        map.writeLong(offset);
+        map.writeInt(out.length);
+    }
+
+    /**
+     * Drop pages numPages and up. The data file is cut after the last extent
+     * of the pages left; the extents of dropped pages before it stay behind
+     * as dead space.
+     */
+    synchronized void truncate(int numPages) throws IOException {
+        if (numPages < this.numPages) {
+            this.numPages = numPages;
+            map.setLength((long) numPages * MAP_ENTRY_SIZE);
+            long end = 0;
+            for (int i = 0; i < numPages; i++)
+                end = Math.max(end, offsets[i] + capacities[i]);
+            if (end < data.length())
+                data.setLength(end);
+        }
+    }
+
+    void close() throws IOException {
+        data.close();
+        map.close();
+    }
+
+    /**
+     * Compress an uncompressed heap file into outFile (and its page-offset
+     * map), page by page.
+     *
+     * @param inFile the heap file to compress
+     * @param outFile the compressed data file to create
+     * @param pageSize the page size of inFile
+     */
+    static void compress(File inFile, File outFile, int pageSize) throws IOException {
+        outFile.delete();
+        mapFile(outFile).delete();
+        CompressedPageFile out = new CompressedPageFile(outFile, pageSize);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+            long n = inFile.length() / pageSize;
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < n; i++) {
+                in.readFully(page);
+                out.writePage(i, page);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
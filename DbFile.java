@@ -43,6 +43,25 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts the specified tuples to the file on behalf of transaction, as
+     * if by calling {@link #insertTuple} for each of them. Files can do
+     * better by filling pages in order and fetching each page only once.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add, each updated like by insertTuple
+     * @return An ArrayList containing each of the pages that were modified once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> pages = new LinkedHashSet<>();
+        for (Tuple t : tuples)
+            pages.addAll(insertTuple(tid, t));
+        return new ArrayList<>(pages);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -27,6 +27,16 @@ public interface DbFileIterator{
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to batch until it is full or there are no
+     * more, projected on fields cols (all fields if cols is null).
+     */
+    public default void nextBatch(TupleBatch batch, int[] cols)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext())
+            batch.add(next(), cols);
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -3,29 +3,31 @@ package simpledb;
 import org.omg.Messaging.SYNC_WITH_TRANSPORT;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 class TryInfo {
+    TransactionId tid;
     PageId pageId;
     Permissions permissions;
 
-    TryInfo(PageId pid, Permissions perm) { pageId = pid; permissions = perm; }
+    TryInfo(TransactionId tid, PageId pid, Permissions perm) { this.tid = tid; pageId = pid; permissions = perm; }
 }
 
 class WaitGraphNode {
     boolean visited = false;
 
-    TryInfo ti;
+    /// one per thread of the transaction waiting for a lock
+    ArrayList<TryInfo> tis;
     PageId exPageId;
     HashSet<PageId> sharePageSet;
 
-    WaitGraphNode(TryInfo ti)
+    WaitGraphNode()
     {
-        this.ti = ti;
+        tis = new ArrayList<>();
         sharePageSet = new HashSet<>();
     }
 }
@@ -48,7 +50,8 @@ public class DeadLockManager extends Thread {
     private BufferPool bufferPool;
     private HashMap<PageId, PageStatus> holdingStatus;
     private HashMap<TransactionId, WaitGraphNode> waitGraph;
-    private ConcurrentHashMap<TransactionId, TryInfo> tryLockMaps;
+    /// keyed by thread: the threads of a parallel plan wait for locks on behalf of the same transaction
+    private ConcurrentHashMap<Thread, TryInfo> tryLockMaps;
     private long startTime;
 
     private DeadLockManager(BufferPool bufferPool) {
@@ -61,12 +64,12 @@ public class DeadLockManager extends Thread {
 
     void tryLock(TransactionId tid, PageId pid, Permissions permissions)
     {
-        tryLockMaps.put(tid, new TryInfo(pid, permissions));
+        tryLockMaps.put(Thread.currentThread(), new TryInfo(tid, pid, permissions));
     }
 
-    void getLock(TransactionId tid)
+    void getLock()
     {
-        tryLockMaps.remove(tid);
+        tryLockMaps.remove(Thread.currentThread());
     }
 
     public static DeadLockManager newDeadLockManager(BufferPool bufferPool) {
@@ -78,7 +81,7 @@ public class DeadLockManager extends Thread {
     {
         WaitGraphNode node = waitGraph.get(tid);
         if (node == null) {
-            node = new WaitGraphNode(null);
+            node = new WaitGraphNode();
             waitGraph.put(tid, node);
         }
         return node;
@@ -106,26 +109,24 @@ public class DeadLockManager extends Thread {
 
     boolean checkForward(WaitGraphNode holder)
     {
-        TryInfo myRequest = holder.ti;
-        /// no edge anymore
-        if (myRequest == null)
-            return false;
-
-        PageStatus status = holdingStatus.get(myRequest.pageId);
-        /// may be not in the buffer when we collect information...
-        if (status == null)
-            return false;
-
         holder.visited = true;
-        if (status.exTransaction != null) {
-            WaitGraphNode node = waitGraph.get(status.exTransaction);
-            if (findDecdLockSingle(myRequest, node))
-                return true;
-        } else {
-            for (TransactionId pageId : status.shareLockSet) {
-                WaitGraphNode node = waitGraph.get(pageId);
+        /// the transaction is stuck if any of its threads is
+        for (TryInfo myRequest : holder.tis) {
+            PageStatus status = holdingStatus.get(myRequest.pageId);
+            /// may be not in the buffer when we collect information...
+            if (status == null)
+                continue;
+
+            if (status.exTransaction != null) {
+                WaitGraphNode node = waitGraph.get(status.exTransaction);
                 if (findDecdLockSingle(myRequest, node))
                     return true;
+            } else {
+                for (TransactionId pageId : status.shareLockSet) {
+                    WaitGraphNode node = waitGraph.get(pageId);
+                    if (findDecdLockSingle(myRequest, node))
+                        return true;
+                }
             }
         }
         holder.visited = false;
@@ -136,14 +137,17 @@ public class DeadLockManager extends Thread {
     {
         if (checkIfDecdLock(request, holder))
             return true;
+        /// already on the path, and checkIfDecdLock found no cycle through it
+        if (holder.visited)
+            return false;
         return checkForward(holder);
     }
 
     TransactionId findDecdLock()
     {
-        for (TransactionId transactionId : tryLockMaps.keySet()) {
+        for (TransactionId transactionId : waitGraph.keySet()) {
             WaitGraphNode waitGraphNode = waitGraph.get(transactionId);
-            if (checkForward(waitGraphNode))
+            if (!waitGraphNode.tis.isEmpty() && checkForward(waitGraphNode))
                 return transactionId;
         }
         return null;
@@ -151,12 +155,8 @@ public class DeadLockManager extends Thread {
 
     private void collectWaitGraph()
     {
-        for (Map.Entry<TransactionId, TryInfo> entry : tryLockMaps.entrySet()) {
-            TransactionId transactionId = entry.getKey();
-            TryInfo ti = entry.getValue();
-            WaitGraphNode node = new WaitGraphNode(ti);
-            waitGraph.put(transactionId, node);
-        }
+        for (TryInfo ti : tryLockMaps.values())
+            getWaitGraphNode(ti.tid).tis.add(ti);
 
         WaitGraphNode node;
         ConcurrentHashMap<PageId, PageInfo> pagesMap = bufferPool.getPagesMap();
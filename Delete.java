@@ -1,10 +1,17 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
  * them from the table they belong to.
+ * <p>
+ * If the child only filters a sequential scan of a HeapFile, as the plan of a
+ * DELETE ... WHERE on one table does, the child is not run at all: the filter
+ * predicates are handed to {@link BufferPool#deleteWhere}, which evaluates
+ * them inside the pages.
  */
 public class Delete extends Operator {
 
@@ -14,6 +21,7 @@ public class Delete extends Operator {
     TransactionId transactionId;
 
     int cnt;
+    boolean childOpen;
     TupleDesc td;
     Tuple resTuple;
 
@@ -39,9 +47,20 @@ public class Delete extends Operator {
 
     public void open() throws DbException, TransactionAbortedException {
         super.open();
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Predicate> preds = new ArrayList<>();
+        SeqScan scan = getFilteredScan(childs[0], preds);
+        if (scan != null) {
+            cnt = bufferPool.deleteWhere(transactionId, scan.getTableId(), preds);
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(cnt));
+            resTuple = t;
+            return;
+        }
+
         OpIterator opIterator = childs[0];
         opIterator.open();
-        BufferPool bufferPool = Database.getBufferPool();
+        childOpen = true;
 
         while (opIterator.hasNext()) {
             Tuple t = opIterator.next();
@@ -59,9 +78,31 @@ public class Delete extends Operator {
         resTuple = t;
     }
 
+    /**
+     * If op is a chain of Filters (under an optional Project) over a SeqScan
+     * of all columns of a HeapFile, add the filters' predicates to preds and
+     * return the scan; otherwise return null.
+     */
+    private static SeqScan getFilteredScan(OpIterator op, List<Predicate> preds) {
+        if (op instanceof Project)  /// does not change which rows are deleted
+            op = ((Project) op).getChildren()[0];
+        while (op instanceof Filter) {
+            preds.add(((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan))
+            return null;
+        SeqScan s = (SeqScan) op;
+        if (s.getColumns() != null || !(Database.getCatalog().getDatabaseFile(s.getTableId()) instanceof HeapFile))
+            return null;
+        return s;
+    }
+
     public void close() {
         super.close();
-        childs[0].close();
+        if (childOpen)
+            childs[0].close();
+        childOpen = false;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -0,0 +1,289 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange operators split a query into pipelines that run on a thread
+ * pool. The pipelines below an exchange (its inputs) are run as tasks, each
+ * in a thread of its own, that put the batches they produce in bounded
+ * queues; the operators above the exchange take them from there, so that a
+ * slow reader holds its producers back instead of letting them fill memory.
+ * <p>
+ * An exchange routes the rows of its inputs to one or more consumers, each
+ * an {@link ExchangeConsumer} read by a pipeline of its own: see
+ * {@link Gather}, {@link HashRepartition} and {@link Broadcast}. Blocking
+ * on a queue goes through {@link ForkJoinPool#managedBlock}, so a pool
+ * whose threads all wait on each other adds threads instead of stalling.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of batches queued for every consumer before producers wait. */
+    public static final int QUEUE_BATCHES = 4;
+
+    /**
+     * @return the name of this exchange, to show in query plans.
+     */
+    public abstract String getName();
+
+    /**
+     * @return the partition of a hash among n partitions. The hash is mixed
+     *         differently than in HashEquiJoin and HashAggregator, so that
+     *         the operators above an exchange still split their partition
+     *         evenly when they partition it again.
+     */
+    static int partitionOf(int hash, int n) {
+        int h = hash * 0xC2B2AE35;
+        h ^= h >>> 16;
+        h *= 0x27D4EB2F;
+        h ^= h >>> 15;
+        return (h >>> 1) % n;
+    }
+
+    /**
+     * The queues between the inputs of an exchange and its consumers, and the
+     * tasks that run the inputs. The tasks start when the first consumer is
+     * opened and stop once all of them are closed. Rows meant for a consumer
+     * that is not open yet wait in its queue; rows meant for one that was
+     * closed are dropped.
+     */
+    static class Channel {
+
+        /// the end of the rows of all inputs, or of a failure
+        private static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[0]), 0);
+
+        /// consumer states: not opened yet in this run, open, at END, closed
+        private static final int IDLE = 0, OPEN = 1, ENDED = 2, CLOSED = 3;
+
+        OpIterator[] inputs;
+        final TupleDesc td;
+        final int field;            /// the field rows are hashed on, or -1 to send them to every consumer
+        private final ForkJoinPool pool;
+        private final List<ArrayBlockingQueue<TupleBatch>> queues;
+        private final int[] states;         /// by consumer
+        private int opened;                 /// consumers OPEN or ENDED
+        private ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile boolean stopped;   /// by the consumers: drop what is left
+        private volatile boolean cancelled; /// by a failed input: stop the others
+        private volatile Throwable failure;
+
+        Channel(OpIterator[] inputs, int consumers, int field, ForkJoinPool pool) {
+            if (inputs.length == 0 || consumers == 0)
+                throw new IllegalArgumentException("an exchange needs an input and a consumer");
+            this.inputs = inputs;
+            this.td = inputs[0].getTupleDesc();
+            this.field = field;
+            this.pool = pool;
+            queues = new ArrayList<ArrayBlockingQueue<TupleBatch>>(consumers);
+            for (int c = 0; c < consumers; c++)
+                queues.add(new ArrayBlockingQueue<TupleBatch>(QUEUE_BATCHES));
+            states = new int[consumers];
+        }
+
+        int consumers() {
+            return queues.size();
+        }
+
+        synchronized void open(int consumer) {
+            if (states[consumer] == OPEN || states[consumer] == ENDED)
+                return;
+            if (opened++ == 0)
+                start();
+            states[consumer] = OPEN;
+        }
+
+        void close(int consumer) {
+            ArrayList<ForkJoinTask<?>> stopped = null;
+            synchronized (this) {
+                if (states[consumer] != OPEN && states[consumer] != ENDED)
+                    return;
+                states[consumer] = CLOSED;
+                queues.get(consumer).clear();
+                if (--opened == 0) {
+                    stopped = stop();
+                    Arrays.fill(states, IDLE);
+                }
+            }
+            /// outside the lock, which producers take while they wait
+            if (stopped != null)
+                awaitAll(stopped);
+        }
+
+        /**
+         * Stop the inputs and run them again from the start, for an exchange
+         * with a single consumer.
+         */
+        void restart(int consumer) {
+            ArrayList<ForkJoinTask<?>> stopped;
+            synchronized (this) {
+                stopped = stop();
+            }
+            awaitAll(stopped);
+            synchronized (this) {
+                start();
+                states[consumer] = OPEN;
+            }
+        }
+
+        private synchronized boolean listening(int consumer) {
+            return states[consumer] != CLOSED;
+        }
+
+        private void start() {
+            stopped = cancelled = false;
+            failure = null;
+            for (ArrayBlockingQueue<TupleBatch> queue : queues)
+                queue.clear();
+            running.set(inputs.length);
+            tasks = new ArrayList<ForkJoinTask<?>>();
+            for (OpIterator input : inputs)
+                tasks.add(pool.submit(() -> produce(input)));
+        }
+
+        private ArrayList<ForkJoinTask<?>> stop() {
+            stopped = true;
+            ArrayList<ForkJoinTask<?>> stopped = tasks;
+            tasks = new ArrayList<ForkJoinTask<?>>();
+            return stopped;
+        }
+
+        private static void awaitAll(ArrayList<ForkJoinTask<?>> stopped) {
+            for (ForkJoinTask<?> task : stopped)
+                task.quietlyJoin();
+        }
+
+        /**
+         * Run an input to its end, routing its rows to the consumers.
+         */
+        private void produce(OpIterator input) {
+            TupleBatch[] pending = field >= 0 ? new TupleBatch[queues.size()] : null;
+            try {
+                input.open();
+                try {
+                    Pipeline pipeline = new Pipeline(input);
+                    Pipeline.Consumer consumer = batch -> {
+                        if (field < 0) {
+                            for (int c = 0; c < queues.size(); c++)
+                                put(c, batch.copy(td));
+                        } else {
+                            route(batch, pending);
+                        }
+                    };
+                    while (!stopped && !cancelled && pipeline.pushNext(consumer))
+                        ;
+                    if (field >= 0) {
+                        for (int c = 0; c < queues.size(); c++) {
+                            if (pending[c] != null && pending[c].size() > 0)
+                                put(c, pending[c]);
+                        }
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (Throwable e) {
+                if (failure == null)
+                    failure = e;
+                cancelled = true;
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    for (int c = 0; c < queues.size(); c++)
+                        put(c, END);
+                }
+            }
+        }
+
+        /// append every row of batch to the pending batch of its consumer, sending full ones
+        private void route(TupleBatch batch, TupleBatch[] pending) {
+            int[] ints = batch.getInts(field);
+            int n = queues.size();
+            for (int r = 0; r < batch.size(); r++) {
+                int c = partitionOf(ints != null ? ints[r] : batch.getField(r, field).hashCode(), n);
+                TupleBatch p = pending[c];
+                if (p == null)
+                    p = pending[c] = new TupleBatch(td, TupleBatch.DEFAULT_SIZE, batch.hasRecordIds());
+                p.add(batch, r);
+                if (p.isFull()) {
+                    put(c, p);
+                    pending[c] = null;
+                }
+            }
+        }
+
+        /// queue a batch for a consumer, unless it is no longer listening
+        private void put(int consumer, TupleBatch batch) {
+            ArrayBlockingQueue<TupleBatch> queue = queues.get(consumer);
+            if (queue.offer(batch))
+                return;
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    boolean done;
+
+                    public boolean block() throws InterruptedException {
+                        while (!done && !stopped && (batch == END || !cancelled) && listening(consumer))
+                            done = queue.offer(batch, 10, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        return done || (done = queue.offer(batch));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return the next batch for a consumer, or null after the last one.
+         */
+        TupleBatch take(int consumer) throws DbException, TransactionAbortedException {
+            synchronized (this) {
+                if (states[consumer] != OPEN)
+                    return null;
+            }
+            ArrayBlockingQueue<TupleBatch> queue = queues.get(consumer);
+            TupleBatch[] taken = new TupleBatch[1];
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    public boolean block() throws InterruptedException {
+                        if (taken[0] == null)
+                            taken[0] = queue.take();
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        return taken[0] != null || (taken[0] = queue.poll()) != null;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while reading an exchange");
+            }
+            if (taken[0] != END)
+                return taken[0];
+
+            synchronized (this) {
+                states[consumer] = ENDED;
+            }
+            Throwable e = failure;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e != null)
+                throw new RuntimeException(e);
+            return null;
+        }
+    }
+}
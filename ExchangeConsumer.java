@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * The reading end of an exchange: an operator that returns the rows the
+ * exchange routes to it, taking them from its queue batch by batch.
+ */
+public abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient Channel channel;
+    final int consumer;
+    transient private TupleBatch batch;
+    transient private int row;
+
+    ExchangeConsumer(Channel channel, int consumer) {
+        this.channel = channel;
+        this.consumer = consumer;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return channel.td;
+    }
+
+    public OpIterator[] getChildren() {
+        return channel.inputs;
+    }
+
+    public void setChildren(OpIterator[] children) {
+        channel.inputs = children;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = null;
+        channel.open(consumer);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        channel.close(consumer);
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || row == batch.size()) {
+            batch = channel.take(consumer);
+            row = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(row++);
+    }
+
+    /**
+     * Returns the next batch from the queue as it is; it belongs to the
+     * caller.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return channel.take(consumer);
+    }
+
+    /// forget the rows of the batch being read
+    void reset() {
+        batch = null;
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ExternalSort returns the tuples of its child ordered by a comparator,
+ * holding at most {@link #RUN_SIZE} of them in memory.
+ * <p>
+ * If the child has no more than RUN_SIZE tuples they are simply sorted in
+ * memory. Otherwise they are sorted RUN_SIZE at a time into runs, each
+ * written to a {@link SpillFile}, and the runs are merged, through a heap
+ * of their first tuples, as tuples are fetched. When there are more than
+ * {@link #MERGE_FAN_IN} runs, groups of them are first merged into longer
+ * runs. Ties keep the order of the child.
+ * <p>
+ * Runs are sorted and written by tasks on the common fork-join pool while
+ * the child is read, and groups of runs are merged in parallel too. At most
+ * one run per worker is in flight besides the one being filled, so memory
+ * stays bounded by about (parallelism + 1) * RUN_SIZE tuples.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples sorted in memory, and written as one run. */
+    public static final int RUN_SIZE = 20000;
+    /** Number of runs merged at once. */
+    public static final int MERGE_FAN_IN = 64;
+
+    private OpIterator child;
+    private final Comparator<Tuple> comparator;
+    private final ForkJoinPool pool;
+
+    private transient ArrayList<Tuple> memory;      /// sorted, when there is a single run
+    private transient int memoryPos;
+    private transient ArrayList<SpillFile> runs;
+    private transient PriorityQueue<Head> heap;
+
+    /// the next tuple of a run being merged
+    private static class Head {
+        Tuple t;
+        final OpIterator run;
+        final int order;        /// of the run, to break ties
+
+        Head(OpIterator run, int order) {
+            this.run = run;
+            this.order = order;
+        }
+    }
+
+    /**
+     * @param child
+     *            the tuples to sort
+     * @param comparator
+     *            the order to return them in
+     */
+    public ExternalSort(OpIterator child, Comparator<Tuple> comparator) {
+        this(child, comparator, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool
+     *            the pool to sort and merge runs on
+     * @see #ExternalSort(OpIterator, Comparator)
+     */
+    public ExternalSort(OpIterator child, Comparator<Tuple> comparator, ForkJoinPool pool) {
+        this.child = child;
+        this.comparator = comparator;
+        this.pool = pool;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * Reads and sorts the whole child, writing runs if it does not fit.
+     */
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        runs = new ArrayList<SpillFile>();
+        /// full buffers being sorted and written, in child order
+        ArrayDeque<ForkJoinTask<SpillFile>> inFlight = new ArrayDeque<ForkJoinTask<SpillFile>>();
+        try {
+            while (child.hasNext()) {
+                buffer.add(child.next());
+                if (buffer.size() == RUN_SIZE) {
+                    if (inFlight.size() >= pool.getParallelism())
+                        runs.add(join(inFlight.poll()));
+                    ArrayList<Tuple> full = buffer;
+                    inFlight.add(pool.submit(() -> writeRun(full)));
+                    buffer = new ArrayList<Tuple>();
+                }
+            }
+            if (runs.isEmpty() && inFlight.isEmpty()) {
+                buffer.sort(comparator);
+                memory = buffer;
+            } else {
+                if (!buffer.isEmpty()) {
+                    ArrayList<Tuple> last = buffer;
+                    inFlight.add(pool.submit(() -> writeRun(last)));
+                }
+                while (!inFlight.isEmpty())
+                    runs.add(join(inFlight.poll()));
+                memory = null;
+                while (runs.size() > MERGE_FAN_IN)
+                    mergePass();
+            }
+        } finally {
+            /// after a failure, let the runs still in flight finish so that they are deleted
+            for (ForkJoinTask<SpillFile> task : inFlight) {
+                try {
+                    runs.add(join(task));
+                } catch (DbException | TransactionAbortedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        startMerge();
+        super.open();
+    }
+
+    /// the result of a task, rethrowing a DbException it threw
+    private static SpillFile join(ForkJoinTask<SpillFile> task) throws DbException, TransactionAbortedException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while sorting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private SpillFile writeRun(ArrayList<Tuple> buffer) throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(getTupleDesc());
+        for (Tuple t : buffer)
+            run.add(t);
+        return run;
+    }
+
+    /// merge the runs MERGE_FAN_IN at a time into longer runs, a task per group
+    private void mergePass() throws DbException, TransactionAbortedException {
+        ArrayList<ForkJoinTask<SpillFile>> tasks = new ArrayList<ForkJoinTask<SpillFile>>();
+        for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+            tasks.add(pool.submit(() -> mergeRuns(group)));
+        }
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (ForkJoinTask<SpillFile> task : tasks)
+            merged.add(join(task));
+        for (SpillFile run : runs)
+            run.close();
+        runs = merged;
+    }
+
+    private SpillFile mergeRuns(List<SpillFile> group) throws DbException, TransactionAbortedException {
+        SpillFile out = new SpillFile(getTupleDesc());
+        PriorityQueue<Head> h = openRuns(group);
+        Tuple t;
+        while ((t = poll(h)) != null)
+            out.add(t);
+        return out;
+    }
+
+    private PriorityQueue<Head> openRuns(List<SpillFile> group) throws DbException, TransactionAbortedException {
+        PriorityQueue<Head> h = new PriorityQueue<Head>(Math.max(1, group.size()), (a, b) -> {
+            int c = comparator.compare(a.t, b.t);
+            return c != 0 ? c : Integer.compare(a.order, b.order);
+        });
+        for (int i = 0; i < group.size(); i++) {
+            Head head = new Head(group.get(i).iterator(), i);
+            head.run.open();
+            if (head.run.hasNext()) {
+                head.t = head.run.next();
+                h.add(head);
+            } else
+                head.run.close();
+        }
+        return h;
+    }
+
+    /// remove the least tuple of the runs in h, or return null if they are all done
+    private static Tuple poll(PriorityQueue<Head> h) throws DbException, TransactionAbortedException {
+        Head head = h.poll();
+        if (head == null)
+            return null;
+        Tuple t = head.t;
+        if (head.run.hasNext()) {
+            head.t = head.run.next();
+            h.add(head);
+        } else
+            head.run.close();
+        return t;
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeMerge();
+        memoryPos = 0;
+        if (memory == null)
+            heap = openRuns(runs);
+    }
+
+    private void closeMerge() {
+        if (heap != null) {
+            for (Head head : heap)
+                head.run.close();
+        }
+        heap = null;
+    }
+
+    public void close() {
+        super.close();
+        closeMerge();
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.close();
+        }
+        runs = null;
+        memory = null;
+        child.close();
+    }
+
+    /**
+     * Starts returning the sorted tuples over, without sorting them again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        startMerge();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (memory != null)
+            return memoryPos < memory.size() ? memory.get(memoryPos++) : null;
+        return poll(heap);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
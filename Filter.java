@@ -4,6 +4,11 @@ import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * A chain of Filters is evaluated as one: the topmost compiles the
+ * conjunction of their predicates when opened (see {@link CompiledPredicate})
+ * and reads the tuples under the chain itself, while the Filters below are
+ * only opened, rewound and closed.
  */
 public class Filter extends Operator {
 
@@ -11,6 +16,8 @@ public class Filter extends Operator {
 
     Predicate predicate;
     OpIterator[] childs;
+    private transient OpIterator input;             /// the operator under the chain of Filters
+    private transient CompiledPredicate compiled;   /// the predicates of the chain
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -38,6 +45,14 @@ public class Filter extends Operator {
             TransactionAbortedException {
         super.open();
         childs[0].open();
+        List<Predicate> preds = new ArrayList<Predicate>();
+        preds.add(predicate);
+        input = childs[0];
+        while (input instanceof Filter) {
+            preds.add(((Filter) input).getPredicate());
+            input = ((Filter) input).getChildren()[0];
+        }
+        compiled = new CompiledPredicate(preds, input.getTupleDesc());
     }
 
     public void close() {
@@ -53,6 +68,7 @@ public class Filter extends Operator {
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
      * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * and the predicates of the Filters under it.
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -61,15 +77,28 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         Tuple tuple = null;
-        OpIterator child = childs[0];
-        while (child.hasNext()) {
-            tuple = child.next();
-            if (predicate.filter(tuple)) break;
+        while (input.hasNext()) {
+            tuple = input.next();
+            if (compiled.test(tuple)) break;
             tuple = null;
         }
         return tuple;
     }
 
+    /**
+     * Filters the batches under the chain of Filters a column at a time,
+     * skipping those left empty.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = input.nextBatch()) != null) {
+            compiled.filter(batch);
+            if (batch.size() > 0)
+                break;
+        }
+        return batch;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return childs;
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Random;
+
+/**
+ * FilterBenchmark compares evaluating a comparison on an INT column one
+ * tuple at a time, through {@link Predicate#filter(Tuple)} and
+ * IntField.compare, against evaluating it over column vectors with
+ * {@link IntColumnFilter}.
+ * <p>
+ * Usage: java simpledb.FilterBenchmark [rows] [runs]
+ * <p>
+ * The column holds uniform values in [0, 1000), and every Predicate.Op is
+ * run at 1%, 50% and 99% selectivity (for the ops that allow it), since
+ * a data-dependent branch costs the most when its outcome is least
+ * predictable. Times are main-thread CPU times, best of all runs.
+ */
+public class FilterBenchmark {
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        TupleDesc td = Utility.getTupleDesc(1);
+        Random rand = new Random(6830);
+        Tuple[] tuples = new Tuple[rows];
+        int[][] batches = new int[(rows + TupleBatch.DEFAULT_SIZE - 1) / TupleBatch.DEFAULT_SIZE][];
+        for (int i = 0; i < rows; i++) {
+            int v = rand.nextInt(1000);
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(v));
+            int b = i / TupleBatch.DEFAULT_SIZE;
+            if (batches[b] == null)
+                batches[b] = new int[Math.min(TupleBatch.DEFAULT_SIZE, rows - b * TupleBatch.DEFAULT_SIZE)];
+            batches[b][i % TupleBatch.DEFAULT_SIZE] = v;
+        }
+
+        System.out.println(rows + " rows, ns per row, best of " + runs);
+        System.out.printf("%-20s %10s %10s %8s%n", "predicate", "per-tuple", "vector", "speedup");
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : new int[] { 10, 500, 990 }) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                long tupleNs = Long.MAX_VALUE, vectorNs = Long.MAX_VALUE;
+                int tupleCount = 0, vectorCount = 0;
+                for (int i = 0; i < runs; i++) {
+                    long start = cpuTime();
+                    tupleCount = perTuple(p, tuples);
+                    long mid = cpuTime();
+                    vectorCount = vectorized(op, v, batches);
+                    long end = cpuTime();
+                    tupleNs = Math.min(tupleNs, mid - start);
+                    vectorNs = Math.min(vectorNs, end - mid);
+                }
+                if (tupleCount != vectorCount)
+                    throw new IllegalStateException(p + ": " + tupleCount + " vs " + vectorCount + " rows");
+                System.out.printf("%-20s %10.2f %10.2f %7.1fx%n", op + " " + v,
+                        (double) tupleNs / rows, (double) vectorNs / rows, (double) tupleNs / Math.max(vectorNs, 1));
+            }
+        }
+    }
+
+    private static int perTuple(Predicate p, Tuple[] tuples) {
+        int n = 0;
+        for (Tuple t : tuples) {
+            if (p.filter(t))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Filter every batch into a selection vector, as Predicate.filter does
+     * with a TupleBatch.
+     */
+    private static int vectorized(Predicate.Op op, int v, int[][] batches) {
+        long[] bitmap = new long[IntColumnFilter.words(TupleBatch.DEFAULT_SIZE)];
+        int[] sel = new int[TupleBatch.DEFAULT_SIZE];
+        int n = 0;
+        for (int[] col : batches) {
+            IntColumnFilter.select(col, col.length, op, v, bitmap);
+            n += IntColumnFilter.toSelection(bitmap, col.length, sel);
+        }
+        return n;
+    }
+
+    private static long cpuTime() {
+        return java.lang.management.ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+}
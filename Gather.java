@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Gather runs each of its children in a task of its own and returns the
+ * rows of all of them, in no particular order. Its children are usually
+ * copies of the same pipeline over different parts of the data, e.g. one
+ * per {@link HashRepartition} consumer.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor, running the children on the common fork-join pool.
+     *
+     * @param children
+     *            the pipelines whose rows to return
+     */
+    public Gather(OpIterator[] children) {
+        this(children, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool
+     *            the pool to run the children on
+     * @see #Gather(OpIterator[])
+     */
+    public Gather(OpIterator[] children, ForkJoinPool pool) {
+        super(new Channel(children, 1, -1, pool), 0);
+    }
+
+    public String getName() {
+        return "gather(" + channel.inputs.length + ")";
+    }
+
+    /**
+     * Runs the children again from the start, reopening them.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        reset();
+        channel.restart(consumer);
+    }
+}
@@ -0,0 +1,429 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator is what {@link IntegerAggregator} and
+ * {@link StringAggregator} have in common: it finds the group of each
+ * tuple and returns a tuple per group. Groups are kept in a hash table on
+ * the group fields: an {@link IntHashMap} for a single INT field, so its
+ * key is never boxed, and otherwise a {@link StringHashMap} on the value
+ * of a single STRING field or on an encoding of several fields. Finding a
+ * group never compares Fields.
+ * <p>
+ * At most {@link #MAX_GROUPS} groups are kept in memory. Past that, a tuple
+ * whose group is not in memory is written to one of {@link #NUM_PARTITIONS}
+ * spill files, chosen by a hash of its group value: such a group never
+ * enters memory, so all of its tuples go to the same file. Only the group
+ * fields and the fields aggregated are written. The results are
+ * the groups in memory followed by those of each partition in turn, which
+ * is aggregated by a new aggregator that partitions it again with another
+ * hash if it has too many groups too. Partitions are not spilled again
+ * past {@link #MAX_LEVELS} levels. Groups are returned in no particular
+ * order.
+ *
+ * @param <A>
+ *            the running aggregate of a group
+ */
+public abstract class HashAggregator<A> implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of groups kept in memory; past it, tuples of new groups are spilled to disk. */
+    public final static int MAX_GROUPS = 1 << 18;
+    /** Number of partitions the tuples of new groups are split into. */
+    public final static int NUM_PARTITIONS = 16;
+    /** Levels of partitioning after which all groups of a partition are kept in memory. */
+    public final static int MAX_LEVELS = 3;
+
+    final int[] gbfields;           /// empty if there is no grouping
+    final Type[] gbfieldtypes;
+    private final int level;        /// 0, or how many times the tuples were partitioned
+
+    private A noGroup;                          /// the only group, if there is no grouping
+    private IntHashMap<A> intGroups;            /// groups on a single INT field
+    private StringHashMap<A> stringGroups;      /// groups on anything else, by key()
+    private int lastKey;                        /// the INT group found last, for runs of one key
+    private A lastGroup;
+
+    /// tuples of the groups not in memory by partition, null until MAX_GROUPS is reached
+    private transient SpillFile[] partitions;
+    private transient int[] spilledFields;      /// the group fields, then the aggregated fields
+    private ResultIterator iterator;
+
+    HashAggregator(int[] gbfields, Type[] gbfieldtypes, int level) {
+        this.gbfields = gbfields;
+        this.gbfieldtypes = gbfieldtypes;
+        this.level = level;
+    }
+
+    /** @return the group fields of the constructor of a single-field aggregator. */
+    static int[] groupFields(int gbfield) {
+        return gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield };
+    }
+
+    /** @return the group field types of the constructor of a single-field aggregator. */
+    static Type[] groupFieldTypes(int gbfield, Type gbfieldtype) {
+        return gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype };
+    }
+
+    /// create the group table; not in the constructor, which runs before the subclass's
+    private void init() {
+        if (gbfields.length == 0) {
+            if (noGroup == null)
+                noGroup = newGroup();
+        } else if (gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE) {
+            if (intGroups == null)
+                intGroups = new IntHashMap<A>();
+        } else if (stringGroups == null)
+            stringGroups = new StringHashMap<A>();
+    }
+
+    /** @return the running aggregates of a group with no tuples yet. */
+    protected abstract A newGroup();
+
+    /** Merge tup into the running aggregates of its group. */
+    protected abstract void merge(A group, Tuple tup);
+
+    /** Merge row r of batch into the running aggregates of its group. */
+    protected abstract void merge(A group, TupleBatch batch, int r);
+
+    /** @return the fields of the input tuples that are aggregated. */
+    protected abstract int[] aggregateFields();
+
+    /**
+     * @return an aggregator like this one, but reading the given group
+     *         fields and aggregate fields, for a partition spilled at
+     *         level - 1.
+     */
+    protected abstract HashAggregator<A> newAggregator(int[] gbfields, int[] afields, int level);
+
+    /** @return the types of the aggregate values. */
+    protected abstract Type[] aggregateTypes();
+
+    /** Set the aggregate values of a group as fields first, first + 1, ... of out. */
+    protected abstract void setResults(A group, Tuple out, int first);
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        A g = group(tup);
+        if (g != null)
+            merge(g, tup);
+    }
+
+    /**
+     * Merge a batch into the aggregate a row at a time.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) throws DbException {
+        for (int r = 0; r < batch.size(); r++) {
+            A g = group(batch, r);
+            if (g != null)
+                merge(g, batch, r);
+        }
+    }
+
+    private boolean full() {
+        return level < MAX_LEVELS
+                && (intGroups != null ? intGroups.size() : stringGroups.size()) >= MAX_GROUPS;
+    }
+
+    /**
+     * @return the partition of a group value hash at this level; every level
+     *         mixes the hash differently, so that it splits a partition of
+     *         the level above.
+     */
+    private int partitionOf(int hash) {
+        int h = (hash + level * 0x61C88647) * 0x9E3779B9;
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h >>> 1) % NUM_PARTITIONS;
+    }
+
+    /// the partition of a group value hash, created for input tuples of schema td if need be
+    private SpillFile partition(int hash, TupleDesc td) throws DbException {
+        if (partitions == null) {
+            partitions = new SpillFile[NUM_PARTITIONS];
+            int[] afields = aggregateFields();
+            spilledFields = Arrays.copyOf(gbfields, gbfields.length + afields.length);
+            System.arraycopy(afields, 0, spilledFields, gbfields.length, afields.length);
+        }
+        int p = partitionOf(hash);
+        if (partitions[p] == null) {
+            Type[] types = new Type[spilledFields.length];
+            for (int i = 0; i < types.length; i++)
+                types[i] = td.getFieldType(spilledFields[i]);
+            partitions[p] = new SpillFile(new TupleDesc(types));
+        }
+        return partitions[p];
+    }
+
+    /**
+     * @return the key of the group of a tuple whose group fields have the
+     *         given values: the value of a single STRING field, or else the
+     *         values of the fields, INTs followed by a comma and strings
+     *         preceded by their length and a colon.
+     */
+    private String key(Field[] values) {
+        if (values.length == 1 && gbfieldtypes[0] == Type.STRING_TYPE)
+            return ((StringField) values[0]).getValue();
+        StringBuilder sb = new StringBuilder();
+        for (Field f : values) {
+            if (f.getType() == Type.INT_TYPE)
+                sb.append(((IntField) f).getValue()).append(',');
+            else {
+                String v = ((StringField) f).getValue();
+                sb.append(v.length()).append(':').append(v);
+            }
+        }
+        return sb.toString();
+    }
+
+    /// the group values encoded by key()
+    private Field[] values(String key) {
+        Field[] values = new Field[gbfields.length];
+        if (values.length == 1 && gbfieldtypes[0] == Type.STRING_TYPE) {
+            values[0] = new StringField(key, Type.STRING_LEN);
+            return values;
+        }
+        int pos = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (gbfieldtypes[i] == Type.INT_TYPE) {
+                int end = key.indexOf(',', pos);
+                values[i] = new IntField(Integer.parseInt(key.substring(pos, end)));
+                pos = end + 1;
+            } else {
+                int colon = key.indexOf(':', pos);
+                int end = colon + 1 + Integer.parseInt(key.substring(pos, colon));
+                values[i] = new StringField(key.substring(colon + 1, end), Type.STRING_LEN);
+                pos = end;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the running aggregates of the group of tup, or null if tup was
+     *         spilled to merge later.
+     */
+    protected A group(Tuple tup) throws DbException {
+        init();
+        if (noGroup != null)
+            return noGroup;
+        if (intGroups != null) {
+            int key = tup.getInt(gbfields[0]);
+            A g = intGroups.get(key);
+            if (g == null) {
+                if (full()) {
+                    partition(key, tup.getTupleDesc()).add(tup, spilledFields);
+                    return null;
+                }
+                g = newGroup();
+                intGroups.put(key, g);
+            }
+            return g;
+        }
+        Field[] values = new Field[gbfields.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = tup.getField(gbfields[i]);
+        String key = key(values);
+        A g = stringGroups.get(key);
+        if (g == null) {
+            if (full()) {
+                partition(key.hashCode(), tup.getTupleDesc()).add(tup, spilledFields);
+                return null;
+            }
+            g = newGroup();
+            stringGroups.put(key, g);
+        }
+        return g;
+    }
+
+    /**
+     * @return the running aggregates of the group of row r of batch, or null
+     *         if the row was spilled to merge later.
+     */
+    protected A group(TupleBatch batch, int r) throws DbException {
+        init();
+        if (noGroup != null)
+            return noGroup;
+        if (intGroups != null) {
+            int key = batch.getInts(gbfields[0])[r];
+            if (lastGroup != null && key == lastKey)
+                return lastGroup;
+            A g = intGroups.get(key);
+            if (g == null) {
+                if (full()) {
+                    partition(key, batch.getTupleDesc()).add(batch, r, spilledFields);
+                    return null;
+                }
+                g = newGroup();
+                intGroups.put(key, g);
+            }
+            lastKey = key;
+            lastGroup = g;
+            return g;
+        }
+        Field[] values = new Field[gbfields.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = batch.getField(r, gbfields[i]);
+        String key = key(values);
+        A g = stringGroups.get(key);
+        if (g == null) {
+            if (full()) {
+                partition(key.hashCode(), batch.getTupleDesc()).add(batch, r, spilledFields);
+                return null;
+            }
+            g = newGroup();
+            stringGroups.put(key, g);
+        }
+        return g;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results. It aggregates the
+     * spilled partitions as it is read, and deletes them when it is closed.
+     *
+     * @return a OpIterator whose tuples are the group values followed by the
+     *         aggregate values, or just the aggregate values if there is no
+     *         grouping. The aggregate values are determined by the
+     *         aggregates specified in the constructor.
+     */
+    public OpIterator iterator() {
+        if (iterator == null)
+            iterator = new ResultIterator();
+        return iterator;
+    }
+
+    /// the results of the groups in memory
+    private ArrayList<Tuple> memoryResults(TupleDesc td) {
+        init();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        int n = gbfields.length;
+        if (noGroup != null) {
+            Tuple tuple = new Tuple(td);
+            setResults(noGroup, tuple, 0);
+            tuples.add(tuple);
+        } else if (intGroups != null) {
+            intGroups.forEachEntry((g, key) -> {
+                Tuple tuple = new Tuple(td);
+                tuple.setField(0, new IntField(key));
+                setResults(g, tuple, 1);
+                tuples.add(tuple);
+            });
+        } else {
+            stringGroups.forEach((key, g) -> {
+                Tuple tuple = new Tuple(td);
+                Field[] values = values(key);
+                for (int i = 0; i < n; i++)
+                    tuple.setField(i, values[i]);
+                setResults(g, tuple, n);
+                tuples.add(tuple);
+            });
+        }
+        return tuples;
+    }
+
+    private class ResultIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private transient Iterator<Tuple> inMemory;
+        private transient int partition;                /// the spilled partition being returned
+        private transient HashAggregator<A> sub;        /// the aggregate of that partition
+        private transient Tuple next;
+
+        ResultIterator() {
+            Type[] atypes = aggregateTypes();
+            Type[] types = Arrays.copyOf(gbfieldtypes, gbfieldtypes.length + atypes.length);
+            System.arraycopy(atypes, 0, types, gbfieldtypes.length, atypes.length);
+            td = new TupleDesc(types, null);
+        }
+
+        public void open() {
+            inMemory = memoryResults(td).iterator();
+            partition = -1;
+            next = null;
+        }
+
+        /// the next result, aggregating the next spilled partition when one is done
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            if (inMemory.hasNext())
+                return inMemory.next();
+            while (true) {
+                if (sub != null && sub.iterator().hasNext())
+                    return sub.iterator().next();
+                closeSub();
+                if (partitions == null || ++partition == NUM_PARTITIONS)
+                    return null;
+                if (partitions[partition] == null)
+                    continue;
+                /// a partition holds the group fields, then the aggregated fields
+                int g = gbfields.length, k = spilledFields.length - g;
+                int[] subGroups = new int[g], subAggregates = new int[k];
+                for (int i = 0; i < g; i++)
+                    subGroups[i] = i;
+                for (int i = 0; i < k; i++)
+                    subAggregates[i] = g + i;
+                sub = newAggregator(subGroups, subAggregates, level + 1);
+                OpIterator in = partitions[partition].iterator();
+                in.open();
+                TupleBatch batch;
+                while ((batch = in.nextBatch()) != null)
+                    sub.mergeBatchIntoGroup(batch);
+                in.close();
+                sub.iterator().open();
+            }
+        }
+
+        private void closeSub() {
+            if (sub != null)
+                sub.iterator().close();
+            sub = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (inMemory == null)
+                throw new IllegalStateException("aggregate results not open");
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() {
+            closeSub();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            closeSub();
+            if (partitions != null) {
+                for (SpillFile f : partitions) {
+                    if (f != null)
+                        f.close();
+                }
+            }
+            partitions = null;
+            inMemory = null;
+            next = null;
+        }
+    }
+}
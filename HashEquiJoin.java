@@ -4,6 +4,18 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table over child1
+ * and probes it with child2. When child1 holds more than {@link #MAP_SIZE}
+ * tuples, both inputs are split by a hash of the join key into
+ * {@link #NUM_PARTITIONS} partitions. The first partition stays in memory
+ * while it fits; the others are written to {@link SpillFile}s and joined
+ * pair by pair afterwards, by a HashEquiJoin over the two files that
+ * partitions them again with another hash if needed. Each level of
+ * partitioning reads and writes its inputs once, instead of rescanning
+ * child2 for every MAP_SIZE tuples of child1. Partitions still too large
+ * after {@link #MAX_LEVELS} levels (e.g. many tuples with the same key) are
+ * joined MAP_SIZE tuples at a time, rescanning their child2 partition.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,7 +23,7 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int level;    /// 0, or how many times the inputs were partitioned
     transient private Tuple t2 = null;
 
     /**
@@ -26,9 +38,14 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -50,48 +67,277 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** Number of child1 tuples kept in memory; past it, partitions are spilled to disk. */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions the inputs are split into when child1 does not fit. */
+    public final static int NUM_PARTITIONS = 16;
+    /** Levels of partitioning after which partitions are joined in chunks of MAP_SIZE. */
+    public final static int MAX_LEVELS = 3;
+
+    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /// used instead of map when joining on INT fields, so keys are never boxed
+    IntHashMap<ArrayList<Tuple>> intMap = null;
+    transient private int inMemory;             /// tuples in the hash table
+
+    /// spilled partitions of child1 and child2, null until child1 overflows
+    transient private SpillFile[] buildParts, probeParts;
+    transient private boolean firstInMemory;    /// whether partition 0 is in the hash table
+    transient private boolean chunked;          /// at MAX_LEVELS: join child1 MAP_SIZE tuples at a time
+    transient private boolean probing;          /// child2 has not been read to the end
+    transient private int partition;            /// the spilled partition being joined
+    transient private HashEquiJoin sub;         /// the join of that partition
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    private void clearMap() {
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+        if (intMap != null)
+            intMap.clear();
+        inMemory = 0;
+    }
+
+    private void put(Tuple t) {
+        ArrayList<Tuple> list;
+        if (intMap != null) {
+            int key = t.getInt(pred.getField1());
+            list = intMap.get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                intMap.put(key, list);
+            }
+        } else {
+            /// INT keys are boxed by getField, so look the key up only once
+            Field key = t.getField(pred.getField1());
+            list = map.get(key);
             if (list == null) {
                 list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+                map.put(key, list);
+            }
+        }
+        list.add(t);
+        inMemory++;
+    }
+
+    /**
+     * @return the partition of a join key hash at this level; every level
+     *         mixes the hash differently, so that it splits a partition of
+     *         the level above.
+     */
+    private int partitionOf(int hash) {
+        int h = (hash + level * 0x61C88647) * 0x9E3779B9;
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h >>> 1) % NUM_PARTITIONS;
+    }
+
+    private int partitionOf(Tuple t, int field) {
+        return partitionOf(intMap != null ? t.getInt(field) : t.getField(field).hashCode());
+    }
+
+    /**
+     * Read child1 into the hash table, spilling partitions once it holds
+     * more than MAP_SIZE tuples.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        clearMap();
+        buildParts = probeParts = null;
+        firstInMemory = true;
+        partition = -1;
+        chunked = level >= MAX_LEVELS;
+        if (chunked) {
+            probing = loadChunk();
+            return;
+        }
+
+        int f1 = pred.getField1();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (buildParts == null) {
+                put(t);
+                if (inMemory > MAP_SIZE)
+                    startSpilling();
+            } else {
+                int p = partitionOf(t, f1);
+                if (p == 0 && firstInMemory) {
+                    put(t);
+                    if (inMemory > MAP_SIZE)
+                        spillFirst();
+                } else
+                    spill(buildParts, p, t, child1.getTupleDesc());
+            }
+        }
+        probing = inMemory > 0 || buildParts != null;
+    }
+
+    /// move every tuple of the hash table but those of partition 0 to its spill file
+    private void startSpilling() throws DbException {
+        buildParts = new SpillFile[NUM_PARTITIONS];
+        probeParts = new SpillFile[NUM_PARTITIONS];
+        int f1 = pred.getField1();
+        for (Tuple t : takeAll()) {
+            int p = partitionOf(t, f1);
+            if (p == 0)
+                put(t);
+            else
+                spill(buildParts, p, t, child1.getTupleDesc());
+        }
+        if (inMemory > MAP_SIZE)
+            spillFirst();
+    }
+
+    /// partition 0 does not fit either: spill it too
+    private void spillFirst() throws DbException {
+        firstInMemory = false;
+        for (Tuple t : takeAll())
+            spill(buildParts, 0, t, child1.getTupleDesc());
+    }
+
+    /// empty the hash table, returning the tuples it held
+    private ArrayList<Tuple> takeAll() {
+        ArrayList<Tuple> all = new ArrayList<Tuple>(inMemory);
+        if (intMap != null)
+            intMap.forEachValue(all::addAll);
+        else
+            map.values().forEach(all::addAll);
+        clearMap();
+        return all;
+    }
+
+    private static void spill(SpillFile[] parts, int p, Tuple t, TupleDesc td) throws DbException {
+        if (parts[p] == null)
+            parts[p] = new SpillFile(td);
+        parts[p].add(t);
+    }
+
+    /**
+     * Read the next MAP_SIZE tuples of child1 into the hash table.
+     * @return false if child1 had no more tuples
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        clearMap();
+        while (inMemory < MAP_SIZE && child1.hasNext())
+            put(child1.next());
+        return inMemory > 0;
+    }
+
+    /**
+     * @return the child1 tuples matching key field f2 of child2 tuple t, or
+     *         null if there are none here. Tuples of spilled partitions are
+     *         written to their partition's file instead.
+     */
+    private ArrayList<Tuple> probe(Tuple t, int f2) throws DbException {
+        if (buildParts != null) {
+            int p = partitionOf(t, f2);
+            if (p != 0 || !firstInMemory) {
+                if (buildParts[p] != null)  /// no match can come from an empty partition
+                    spill(probeParts, p, t, child2.getTupleDesc());
+                return null;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+        }
+        return intMap != null ? intMap.get(t.getInt(f2)) : map.get(t.getField(f2));
+    }
+
+    /** As {@link #probe(Tuple, int)}, for row r of a child2 batch. */
+    private ArrayList<Tuple> probe(TupleBatch b, int r, int f2) throws DbException {
+        int[] ints = b.getInts(f2);
+        if (buildParts != null) {
+            int p = partitionOf(intMap != null ? ints[r] : b.getField(r, f2).hashCode());
+            if (p != 0 || !firstInMemory) {
+                if (buildParts[p] != null) {
+                    if (probeParts[p] == null)
+                        probeParts[p] = new SpillFile(child2.getTupleDesc());
+                    probeParts[p].add(b, r);
+                }
+                return null;
+            }
+        }
+        return intMap != null ? intMap.get(ints[r]) : map.get(b.getField(r, f2));
+    }
+
+    /**
+     * Child2 is done: move on to the next chunk of child1 or, once there
+     * are none, to the spilled partitions.
+     */
+    private void endOfProbe() throws DbException, TransactionAbortedException {
+        if (chunked && loadChunk()) {
+            child2.rewind();
+            return;
+        }
+        probing = false;
+        clearMap();
+    }
+
+    /**
+     * Start joining the next pair of spilled partitions.
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (buildParts == null)
+            return false;
+        if (partition >= 0)
+            dropPartition(partition);
+        while (++partition < NUM_PARTITIONS) {
+            if (buildParts[partition] != null && probeParts[partition] != null) {
+                sub = new HashEquiJoin(pred, buildParts[partition].iterator(),
+                        probeParts[partition].iterator(), level + 1);
+                sub.open();
                 return true;
+            }
+            dropPartition(partition);
         }
-        return cnt > 0;
+        return false;
+    }
 
+    private void dropPartition(int p) {
+        if (buildParts[p] != null)
+            buildParts[p].close();
+        if (probeParts[p] != null)
+            probeParts[p].close();
+        buildParts[p] = probeParts[p] = null;
+    }
+
+    /// close the join of the current partition and delete all spill files
+    private void dropSpills() {
+        if (sub != null)
+            sub.close();
+        sub = null;
+        if (buildParts != null) {
+            for (int p = 0; p < NUM_PARTITIONS; p++)
+                dropPartition(p);
+        }
+        buildParts = probeParts = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        boolean intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        intMap = intKeys ? new IntHashMap<ArrayList<Tuple>>(MAP_SIZE) : null;
+        build();
         super.open();
     }
 
     public void close() {
         super.close();
+        dropSpills();
         child2.close();
         child1.close();
-        this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.probe=null;
+        this.matches=null;
+        clearMap();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        dropSpills();
+        listIt = null;
+        probe = null;
+        matches = null;
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -114,49 +360,84 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f2 = pred.getField2();
+        while (true) {
+            if (listIt != null && listIt.hasNext())
+                return Tuple.merge(comboTD, listIt.next(), t2);
+            listIt = null;
 
-    }
+            if (sub != null) {
+                if (sub.hasNext())
+                    return sub.next();
+                sub.close();
+                sub = null;
+            }
+            if (!probing) {
+                if (!nextPartition())
+                    return null;
+                continue;
+            }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                ArrayList<Tuple> l = probe(t2, f2);
+                if (l != null)
+                    listIt = l.iterator();
+            } else
+                endOfProbe();
         }
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+    transient private TupleBatch out;
+    transient private TupleBatch probe;     /// the current batch of child2
+    transient private int probeRow;
+    transient private ArrayList<Tuple> matches;
+    transient private int matchPos;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * Probes the hash table with the child2 rows a batch at a time, and
+     * returns the joined rows in batches. The table is built from child1
+     * one tuple at a time, as in tuple mode.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE, false);
+        out.clear();
+        int f2 = pred.getField2();
+        while (!out.isFull()) {
+            if (matches != null && matchPos < matches.size()) {
+                out.addJoined(matches.get(matchPos++), probe, probeRow);
                 continue;
-            listIt = l.iterator();
-
-            return processList();
+            }
+            matches = null;
 
-        }
+            if (sub != null) {
+                if (out.size() > 0)
+                    break;
+                TupleBatch b = sub.nextBatch();
+                if (b != null)
+                    return b;
+                sub.close();
+                sub = null;
+            }
+            if (!probing) {
+                if (!nextPartition())
+                    break;
+                continue;
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            if (probe != null && ++probeRow < probe.size()) {
+                matches = probe(probe, probeRow, f2);
+                matchPos = 0;
+                continue;
+            }
+            probe = child2.nextBatch();
+            probeRow = -1;
+            if (probe == null)
+                endOfProbe();
         }
-
-        return null;
+        return out.size() > 0 ? out : null;
     }
 
     @Override
@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * HashRepartition splits the rows of its inputs among several consumers
+ * by a hash of one field, so that rows with the same value of that field
+ * all go to the same consumer. Each consumer feeds a pipeline of its own,
+ * e.g. an Aggregate grouping on the field or a HashEquiJoin joining on
+ * it, and a {@link Gather} over those pipelines runs them in parallel.
+ * <p>
+ * The consumers share their inputs, which run while any consumer is open.
+ * A consumer cannot be rewound on its own; rewind the Gather above it.
+ */
+public class HashRepartition extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private HashRepartition(Channel channel, int consumer) {
+        super(channel, consumer);
+    }
+
+    /**
+     * Partition one input among n consumers, running it on the common
+     * fork-join pool.
+     *
+     * @param input
+     *            the rows to partition
+     * @param field
+     *            the field to hash
+     * @param n
+     *            the number of consumers
+     * @return the consumers
+     */
+    public static HashRepartition[] partition(OpIterator input, int field, int n) {
+        return partition(new OpIterator[] { input }, field, n, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Partition the rows of several inputs, which must have the same
+     * schema, among n consumers.
+     *
+     * @param pool
+     *            the pool to run the inputs on
+     * @see #partition(OpIterator, int, int)
+     */
+    public static HashRepartition[] partition(OpIterator[] inputs, int field, int n, ForkJoinPool pool) {
+        Channel channel = new Channel(inputs, n, field, pool);
+        HashRepartition[] consumers = new HashRepartition[n];
+        for (int c = 0; c < n; c++)
+            consumers[c] = new HashRepartition(channel, c);
+        return consumers;
+    }
+
+    /**
+     * @return the field the rows are hashed on
+     */
+    public int getField() {
+        return channel.field;
+    }
+
+    /**
+     * @return the number of consumers the rows are split among
+     */
+    public int getPartitions() {
+        return channel.consumers();
+    }
+
+    public String getName() {
+        return "hash(" + getTupleDesc().getFieldName(channel.field) + ")/" + channel.consumers();
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException("a HashRepartition consumer cannot be rewound on its own");
+    }
+}
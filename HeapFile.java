@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -12,48 +13,85 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * A HeapFile may also be stored compressed, one LZCodec block per page with a
+ * page-offset map next to the data file (see CompressedPageFile). Pages are
+ * decompressed as they are read into the BufferPool, so everything above
+ * readPage sees ordinary HeapPages.
+ * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
     File f;
     RandomAccessFile rf;
+    CompressedPageFile cpf;     /// null unless the file is stored compressed
     TupleDesc tupleDesc;
+    ZoneMap zoneMap;
 
     AtomicInteger version = new AtomicInteger(0);
-    //AtomicInteger numPages = new AtomicInteger();
-
     //AtomicInteger numPages = new AtomicInteger();
     int numPages;
     ReentrantReadWriteLock.ReadLock rLock;
     ReentrantReadWriteLock.WriteLock wLock;
 
+    /// table lock: held shared while a page is fetched by number, exclusively
+    /// (and only ever by tryLock) while vacuum truncates the file
+    ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+
+    /// pages before this one were found full by an insert; lowered again
+    /// whenever a page may have regained space (delete, abort, vacuum)
+    AtomicInteger firstFreePage = new AtomicInteger(0);
+
 
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file. The file is read
+     * as compressed if it has a page-offset map next to it.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, CompressedPageFile.isCompressed(f));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param compressed
+     *            whether pages are stored compressed; an empty file given
+     *            compressed = true starts a new compressed heap file.
+     */
+    public HeapFile(File f, TupleDesc td, boolean compressed) {
         this.f = f;
+        int pageSize = BufferPool.getPageSize();
         try {
-            rf = new RandomAccessFile(f, "rw");
-        } catch (FileNotFoundException e) {
+            if (compressed)
+                cpf = new CompressedPageFile(f, pageSize);
+            else
+                rf = new RandomAccessFile(f, "rw");
+        } catch (IOException e) {
             System.out.println("Failed at create HeapFile!");
             //System.exit(-1);
         }
 
         tupleDesc = td;
+        zoneMap = new ZoneMap(td);
 
         ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
         rLock = lock.readLock();
         wLock = lock.writeLock();
 
-        int len = (int) f.length();
-        int pageSize = BufferPool.getPageSize();
-        numPages = (len / pageSize) + (len % pageSize != 0 ? 1 : 0);
+        if (cpf != null) {
+            numPages = cpf.numPages();
+        } else {
+            int len = (int) f.length();
+            numPages = (len / pageSize) + (len % pageSize != 0 ? 1 : 0);
+        }
     }
 
     /**
@@ -78,6 +116,20 @@ public class HeapFile implements DbFile {
         return f.getAbsoluteFile().hashCode();
     }
 
+    /**
+     * @return true if this file's pages are stored compressed.
+     */
+    public boolean isCompressed() {
+        return cpf != null;
+    }
+
+    /**
+     * @return the per-page min/max bounds used to skip pages in scans.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
     public int getVersion() {
         return version.get();
     }
@@ -97,18 +149,31 @@ public class HeapFile implements DbFile {
 
         rLock.lock();
         if (pageNo < 0 || pageNo >= numPages) {
-            wLock.unlock();
+            rLock.unlock();
             throw new IllegalArgumentException();
         }
         rLock.unlock();
 
         /// never decrease size now...
         try {
-            int pageSize = BufferPool.getPageSize();
-            byte[] data = new byte[pageSize];
-            rf.seek(pageNo * pageSize);
-            rf.read(data);
-            return new HeapPage((HeapPageId) pid, data);
+            HeapPage page;
+            if (cpf != null) {
+                page = new HeapPage((HeapPageId) pid, cpf.readPage(pageNo));
+            } else {
+                /// positional reads, so that scans on several threads can share the file
+                int pageSize = BufferPool.getPageSize();
+                ByteBuffer data = ByteBuffer.allocate(pageSize);
+                long pos = (long) pageNo * pageSize;
+                while (data.hasRemaining()) {
+                    if (rf.getChannel().read(data, pos + data.position()) < 0)
+                        break;  /// past the end of the file: the rest of the page is empty
+                }
+                page = new HeapPage((HeapPageId) pid, data.array());
+            }
+            /// pages on disk hold committed data only, so they can (re)build a zone
+            if (!zoneMap.hasZone(pageNo))
+                zoneMap.update(pageNo, page);
+            return page;
         } catch (Exception e) {
             e.printStackTrace();
             throw new IllegalArgumentException();
@@ -117,41 +182,15 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        /// set pos
-        int pageSize = BufferPool.getPageSize();
-        HeapPage heapPage = (HeapPage) page;
-        int startPos = heapPage.getId().getPageNumber() * pageSize;
-        rf.seek(startPos);
-
-        byte[] header = heapPage.getHeader();
-        rf.write(header);
-
-        /// transfer tuples into bytes...
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize - header.length);
-        DataOutputStream dos = new DataOutputStream(baos);
-        writeNextTuple(dos, heapPage.getTuples(), tupleDesc);
-        rf.write(baos.toByteArray());
-    }
-
-    private void writeNextTuple(DataOutputStream dos, Tuple[] tuples, TupleDesc tupleDesc) throws IOException {
-        Type[] types = tupleDesc.getTypes();
-        int tupleLength = tupleDesc.getSize();
-        byte[] emptyTuple = new byte[tupleLength];
-        for (Tuple t : tuples) {
-            if (t == null) {
-                dos.write(emptyTuple);
-                continue;
-            }
-            for (int i = 0; i < types.length; i++) {
-                Type type = types[i];
-                Field of = t.getField(i);
-                if (type == Type.STRING_TYPE)
-                    dos.write(type.toBytes(((StringField) of).getValue()));
-                else
-                    dos.write(type.toBytes(((IntField) of).getValue()));
-            }
+        if (cpf != null) {
+            cpf.writePage(page.getId().getPageNumber(), page.getPageData());
+            return;
         }
-        dos.flush();
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        long pos = (long) page.getId().getPageNumber() * pageSize;
+        while (data.hasRemaining())
+            rf.getChannel().write(data, pos + data.position());
     }
 
     /**
@@ -167,34 +206,276 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        if (!t.getTupleDesc().equals(tupleDesc))
-            throw new DbException("insertTuple: tupleDesc mismatch!");
+        return insertTuples(tid, Collections.singletonList(t));
+    }
 
-        int i;
-        int tableId = getId();
+    /**
+     * Insert tuples, filling pages in order starting from the first one that
+     * may have room and growing the file as needed. Each page is fetched and
+     * locked once for the whole batch, and pages found full are skipped by
+     * later inserts too.
+     *
+     * @see DbFile#insertTuples
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> pages = new ArrayList<>();
         BufferPool bufferPool = Database.getBufferPool();
-        for (i = 0; i < numPages(); i++) {
-            HeapPageId pageId = new HeapPageId(tableId, i);
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
-            try {
-                page.insertTuple(t);
-            } catch (DbException e) {
-                bufferPool.releasePage(tid, pageId);
-                continue;
+        int start = firstFreePage.get();
+        int pgNo = start;
+        HeapPage page = null;
+        boolean added = false;  /// page is already in pages
+        for (Tuple t : tuples) {
+            if (!t.getTupleDesc().equals(tupleDesc))
+                throw new DbException("insertTuple: tupleDesc mismatch!");
+            if (!HeapPage.fitsOnEmptyPage(tupleDesc, t))
+                throw new DbException("insertTuple: tuple does not fit in a page!");
+
+            while (true) {
+                if (page == null) {
+                    page = fetchPageForInsert(tid, pgNo);
+                    pgNo = page.getId().getPageNumber();
+                }
+                try {
+                    page.insertTuple(t);
+                    break;
+                } catch (DbException e) {
+                    if (page.isDirty() == null)
+                        bufferPool.releasePage(tid, page.getId());
+                    page = null;
+                    added = false;
+                    pgNo++;
+                }
             }
 
-            //page.markDirty(true, tid);
-            pages.add(page);
+            /// mark the page dirty at once, so a failure later in the batch cannot leave it changed but clean
+            page.markDirty(true, tid);
+            if (!added) {
+                pages.add(page);
+                added = true;
+            }
+            zoneMap.widen(pgNo, t);
             version.getAndIncrement();
-            return pages;
         }
+        if (pgNo > start)
+            firstFreePage.compareAndSet(start, pgNo);
+        return pages;
+    }
+
+    /**
+     * Get page pgNo for writing, first growing the file by an empty page if
+     * pgNo is its end. If vacuum has meanwhile truncated the file below
+     * pgNo, the new last page is returned instead.
+     */
+    private HeapPage fetchPageForInsert(TransactionId tid, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        while (true) {
+            HeapPage page = (HeapPage) fetchPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            if (page != null)
+                return page;
+
+            wLock.lock();
+            try {
+                if (pgNo > numPages)
+                    pgNo = numPages;
+                if (pgNo == numPages) {
+                    if (cpf != null)
+                        cpf.writePage(numPages, HeapPage.createEmptyPageData());
+                    else
+                        rf.setLength((long) (numPages + 1) * BufferPool.getPageSize());
+                    numPages++;
+                }
+            } finally {
+                wLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Note that page pgNo may have free space again, e.g. because a
+     * transaction that filled it aborted, so that inserts look at it again.
+     */
+    void pageFreed(int pgNo) {
+        firstFreePage.accumulateAndGet(pgNo, Math::min);
+    }
+
+    /**
+     * Get page pid from the BufferPool unless it lies past the end of the
+     * file, holding the table lock in between so that vacuum cannot
+     * truncate the page away after the check.
+     *
+     * @return the page, or null if it is past the end of the file
+     */
+    Page fetchPage(TransactionId tid, HeapPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        tableLock.readLock().lock();
+        try {
+            if (pid.getPageNumber() >= numPages())
+                return null;
+            return Database.getBufferPool().getPage(tid, pid, perm);
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Vacuum this file online: move the tuples of the last pages into free
+     * space in earlier pages, then truncate the emptied pages off the end of
+     * the file, so that scans stop paying for deleted data.
+     * <p>
+     * Each page is emptied in a short transaction of its own, under the usual
+     * page locks, so concurrent readers and writers only wait for the pages
+     * being moved. Moved tuples get new RecordIds. Truncation only drops
+     * pages no transaction holds, and gives up rather than wait for the table
+     * lock, so a busy file may be left partly compacted.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int vacuum() throws IOException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int before = numPages();
+        int firstFree = 0;  /// pages before this one have been found full
+        int prevLast = -1;
+        while (true) {
+            truncate();
+            int last = numPages() - 1;
+            if (last <= firstFree || last == prevLast)
+                break;  /// compact, or the emptied last page is still in use
+            prevLast = last;
+
+            TransactionId tid = new TransactionId();
+            try {
+                firstFree = moveTuples(tid, last, firstFree);
+                bufferPool.transactionComplete(tid, true);
+            } catch (DbException | TransactionAbortedException e) {
+                bufferPool.transactionComplete(tid, false);
+                break;
+            }
+            if (firstFree < 0)
+                break;  /// the earlier pages are full: nothing left to compact
+        }
+        truncate();
+        return before - numPages();
+    }
+
+    /**
+     * Move as many tuples as fit from page last into pages firstFree and up,
+     * as part of transaction tid.
+     *
+     * @return the first page that may still have free space, or -1 if page
+     *         last could not be emptied
+     */
+    private int moveTuples(TransactionId tid, int last, int firstFree)
+            throws DbException, TransactionAbortedException {
+        HeapPage lastPage = (HeapPage) fetchPage(tid, new HeapPageId(getId(), last), Permissions.READ_WRITE);
+        if (lastPage == null)
+            return firstFree;
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = lastPage.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+
+        int pgNo = firstFree;
+        for (Tuple t : tuples) {
+            Tuple copy = new Tuple(tupleDesc);
+            for (int i = 0; i < tupleDesc.numFields(); i++)
+                copy.setField(i, t.getField(i));
+
+            while (true) {
+                if (pgNo >= last)
+                    return -1;
+                HeapPageId pageId = new HeapPageId(getId(), pgNo);
+                HeapPage page = (HeapPage) fetchPage(tid, pageId, Permissions.READ_WRITE);
+                try {
+                    page.insertTuple(copy);
+                } catch (DbException e) {
+                    if (page.isDirty() == null)
+                        Database.getBufferPool().releasePage(tid, pageId);
+                    pgNo++;
+                    continue;
+                }
+                page.markDirty(true, tid);
+                zoneMap.widen(pgNo, copy);
+                break;
+            }
+            lastPage.deleteTuple(t);
+            lastPage.markDirty(true, tid);
+        }
+        zoneMap.invalidate(last);
+        version.getAndIncrement();
+        return pgNo;
+    }
+
+    /**
+     * Delete every tuple that satisfies all of preds, as part of transaction
+     * tid, inside the pages: each page is checked under a read lock and,
+     * only if some tuple on it matches, locked for writing and cleared in
+     * place. Pages the zone map rules out are not read at all.
+     *
+     * @param preds predicates whose fields index this file's TupleDesc
+     * @return the number of tuples deleted
+     */
+    public int deleteWhere(TransactionId tid, List<Predicate> preds)
+            throws DbException, TransactionAbortedException {
+        int count = 0;
+        for (int pgNo = 0; pgNo < numPages(); pgNo++) {
+            if (!zoneMap.mayMatch(pgNo, preds))
+                continue;
+            HeapPageId pageId = new HeapPageId(getId(), pgNo);
+            HeapPage page = (HeapPage) fetchPage(tid, pageId, Permissions.READ_ONLY);
+            if (page == null)
+                break;  /// truncated by vacuum
+            if (page.nextMatch(preds, 0) < 0)
+                continue;
+
+            page = (HeapPage) fetchPage(tid, pageId, Permissions.READ_WRITE);
+            int n = page.deleteMatching(preds);
+            page.markDirty(true, tid);
+            zoneMap.invalidate(pgNo);
+            pageFreed(pgNo);
+            version.getAndAdd(n);
+            count += n;
+        }
+        return count;
+    }
 
-        wLock.lock();
-        numPages++;
-        rf.setLength((numPages+1) * BufferPool.getPageSize());
-        wLock.unlock();
-        return insertTuple(tid, t);
+    /**
+     * Drop the empty pages at the end of the file that no transaction holds.
+     */
+    private void truncate() throws IOException {
+        if (!tableLock.writeLock().tryLock())
+            return;
+        try {
+            BufferPool bufferPool = Database.getBufferPool();
+            int n = numPages();
+            int keep = n;
+            while (keep > 0) {
+                HeapPageId pid = new HeapPageId(getId(), keep - 1);
+                if (!bufferPool.discardPageIfUnused(pid))
+                    break;
+                /// not cached any more: the page on disk is the committed one
+                if (((HeapPage) readPage(pid)).iterator().hasNext())
+                    break;
+                keep--;
+            }
+            if (keep == n)
+                return;
+
+            wLock.lock();
+            try {
+                if (cpf != null)
+                    cpf.truncate(keep);
+                else
+                    rf.setLength((long) keep * BufferPool.getPageSize());
+                numPages = keep;
+                zoneMap.truncate(keep);
+                pageFreed(keep);
+            } finally {
+                wLock.unlock();
+            }
+        } finally {
+            tableLock.writeLock().unlock();
+        }
     }
 
     // see DbFile.java for javadocs
@@ -208,30 +489,88 @@ public class HeapFile implements DbFile {
         PageId pageId = t.getRecordId().getPageId();
         HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
         page.deleteTuple(t);
+        zoneMap.invalidate(pageId.getPageNumber());
+        pageFreed(pageId.getPageNumber());
+        version.getAndIncrement();
+        return new ArrayList<Page>() {{ add(page); }};
+    }
+
+    /**
+     * Set the given fields of the tuple with record id rid to values, in
+     * place in its slot, on behalf of transaction tid.
+     *
+     * @return the modified page, or null -- changing nothing -- if the
+     *         changed tuple no longer fits on its page
+     * @throws DbException if the tuple is not in this file, or a value has
+     *         the wrong type
+     */
+    public ArrayList<Page> updateTuple(TransactionId tid, RecordId rid, int[] fields, Field[] values)
+            throws DbException, TransactionAbortedException {
+        PageId pageId = rid.getPageId();
+        if (pageId.getTableId() != getId())
+            throw new DbException("updateTuple: tuple is not in this table!");
+
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        if (!page.updateTuple(rid.getTupleNumber(), fields, values))
+            return null;
+        /// the old values stay inside the zone, which is fine for an upper bound
+        zoneMap.widen(pageId.getPageNumber(), page.getTuples()[rid.getTupleNumber()]);
         version.getAndIncrement();
         return new ArrayList<Page>() {{ add(page); }};
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return HeapFileScanIterator.newHeapFileScanIterator(tid, this);
+        return HeapFileScanIterator.newHeapFileScanIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator that skips pages the zone map shows cannot hold
+     * a tuple satisfying all of preds. Tuples on the pages it does read are
+     * returned whether or not they match, so the caller still filters them.
+     *
+     * @param preds predicates over this file's fields
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return HeapFileScanIterator.newHeapFileScanIterator(tid, this, preds);
+    }
+
+    /**
+     * Returns an iterator over the pages morsels hands out to it, rather
+     * than over the whole file, for one of several scans sharing the file.
+     *
+     * @param preds predicates over this file's fields, or null
+     * @see #iterator(TransactionId, List)
+     */
+    DbFileIterator iterator(TransactionId tid, List<Predicate> preds, Morsels morsels) {
+        HeapFileScanIterator iterator = HeapFileScanIterator.newHeapFileScanIterator(tid, this, preds);
+        iterator.morsels = morsels;
+        return iterator;
     }
 
 }
 
 class HeapFileScanIterator extends AbstractDbFileIterator {
+    private static final Tuple[] NO_TUPLES = new Tuple[0];
+
     HeapFile hf;
     int currPgNo;
     TransactionId tid;
-    Iterator<Tuple> tupleIterator;
-
-    static HeapFileScanIterator newHeapFileScanIterator(TransactionId tid, HeapFile file)
+    List<Predicate> preds;      /// null: read every page
+    Morsels morsels;            /// null: read the whole file
+    int endPgNo;                /// the end of the current morsel
+    HeapPage page;              /// the current page, null if it was skipped
+    Tuple[] tuples;             /// slots of the current page
+    int slot;
+
+    static HeapFileScanIterator newHeapFileScanIterator(TransactionId tid, HeapFile file, List<Predicate> preds)
     {
         HeapFileScanIterator iterator = new HeapFileScanIterator();
         iterator.hf = file;
         iterator.tid = tid;
+        iterator.preds = preds;
         iterator.currPgNo = -1;
-        iterator.tupleIterator = null;
+        iterator.tuples = null;
         return iterator;
     }
 
@@ -239,37 +578,97 @@ class HeapFileScanIterator extends AbstractDbFileIterator {
     public Tuple readNext() throws DbException, TransactionAbortedException {
         if (currPgNo == -1) // not yet opened
             return null;
-        if (tupleIterator == null) // has closed
+        if (tuples == null) // has closed
             throw new NoSuchElementException();
-        if (tupleIterator.hasNext())
-            return tupleIterator.next();
-        if (++currPgNo >= hf.numPages())
-            return null;
-        HeapPageId pageId = new HeapPageId(hf.getId(), currPgNo);
-        BufferPool bufferPool = Database.getBufferPool();
-        HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
-        tupleIterator = page.iterator();
-        if (tupleIterator.hasNext())
-            return tupleIterator.next();
-        return null;
+        /// pages may be empty or skipped, keep going until a tuple turns up
+        while (true) {
+            while (slot < tuples.length) {
+                Tuple t = tuples[slot++];
+                if (t != null)
+                    return t;
+            }
+            if (!nextPage())
+                return null;
+        }
+    }
+
+    /**
+     * Has each page copy its tuples into the batch; see HeapPage#readBatch.
+     */
+    @Override
+    protected void readBatch(TupleBatch batch, int[] cols) throws DbException, TransactionAbortedException {
+        if (currPgNo == -1)
+            return;
+        if (tuples == null)
+            throw new NoSuchElementException();
+        while (!batch.isFull()) {
+            if (page != null)
+                slot = page.readBatch(slot, batch, cols);
+            if (slot < tuples.length || !nextPage())
+                return;
+        }
+    }
+
+    /**
+     * Move on to the next page, claiming a new morsel at the end of the
+     * current one.
+     *
+     * @return false at the end of the pages to read
+     */
+    private boolean nextPage() throws DbException, TransactionAbortedException {
+        int pgNo = currPgNo + 1;
+        if (pgNo >= Math.min(endPgNo, hf.numPages())) {
+            if (morsels == null || (pgNo = morsels.claim(hf.numPages())) < 0)
+                return false;
+            endPgNo = pgNo + Morsels.MORSEL_PAGES;
+        }
+        currPgNo = pgNo;
+        tuples = pageTuples(pgNo);
+        slot = 0;
+        return true;
+    }
+
+    private Tuple[] pageTuples(int pgNo) throws DbException, TransactionAbortedException {
+        page = null;
+        ZoneMap zoneMap = hf.getZoneMap();
+        if (pgNo >= hf.numPages() || (preds != null && !zoneMap.mayMatch(pgNo, preds)))
+            return NO_TUPLES;
+
+        HeapPageId pageId = new HeapPageId(hf.getId(), pgNo);
+        HeapPage page = (HeapPage) hf.fetchPage(tid, pageId, Permissions.READ_ONLY);
+        if (page == null)   /// truncated by vacuum
+            return NO_TUPLES;
+        if (!zoneMap.hasZone(pgNo) && page.isDirty() == null)
+            zoneMap.update(pgNo, page);
+        this.page = page;
+        return page.getTuples();
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        currPgNo = 0;
-        HeapPageId pageId = new HeapPageId(hf.getId(), 0);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-        tupleIterator = page.iterator();
+        if (morsels == null) {
+            endPgNo = Integer.MAX_VALUE;
+            currPgNo = 0;
+            tuples = pageTuples(0);
+        } else {
+            /// start before a first, empty morsel, so that the first page read is claimed
+            endPgNo = 0;
+            currPgNo = 0;
+            page = null;
+            tuples = NO_TUPLES;
+        }
+        slot = 0;
     }
 
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
+        close();
         open();
     }
 
     @Override
     public void close() {
         super.close();
-        tupleIterator = null;
+        tuples = null;
     }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -223,4 +224,98 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file for a
+   * table with schema td. If td declares field lengths, the output is made
+   * of slotted pages holding variable-length records (see HeapPage);
+   * otherwise this is the same as the fixed-size conversion above.
+   *
+   * @see HeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param td the schema of the table
+   * @param fieldSeparator the character separating fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 TupleDesc td, char fieldSeparator)
+      throws IOException {
+      if (!td.isVariableLength()) {
+          convert(inFile, outFile, npagebytes, td.numFields(), td.getTypes(), fieldSeparator);
+          return;
+      }
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int used = HeapPage.SLOTTED_HEADER_SIZE;
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          Tuple t = parseLine(line, td, fieldSeparator);
+          int size = HeapPage.SLOT_SIZE + HeapPage.getRecordSize(td, t);
+          if (used + size > npagebytes && !page.isEmpty()) {
+              os.write(HeapPage.createSlottedPageData(td, page.toArray(new Tuple[0]), npagebytes));
+              page.clear();
+              used = HeapPage.SLOTTED_HEADER_SIZE;
+              npages++;
+          }
+          page.add(t);
+          used += size;
+      }
+
+      // flush the last page, or an empty page if the file is empty
+      if (!page.isEmpty() || npages == 0)
+          os.write(HeapPage.createSlottedPageData(td, page.toArray(new Tuple[0]), npagebytes));
+      br.close();
+      os.close();
+  }
+
+  /** Compress the binary page file inFile into outFile, which can then be
+   * opened as a compressed HeapFile. outFile may be inFile itself, in which
+   * case the file is replaced once the compressed copy is complete.
+   *
+   * @see CompressedPageFile
+   * @param inFile The heap file to compress
+   * @param outFile The compressed file to write
+   * @param npagebytes The number of bytes per page in inFile
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void compress(File inFile, File outFile, int npagebytes) throws IOException {
+      if (CompressedPageFile.isCompressed(inFile))
+          throw new IOException(inFile + " is already compressed");
+      if (!inFile.getAbsoluteFile().equals(outFile.getAbsoluteFile())) {
+          CompressedPageFile.compress(inFile, outFile, npagebytes);
+          return;
+      }
+
+      File tmp = new File(outFile.getPath() + ".tmp");
+      CompressedPageFile.compress(inFile, tmp, npagebytes);
+      if (!tmp.renameTo(outFile) || !CompressedPageFile.mapFile(tmp).renameTo(CompressedPageFile.mapFile(outFile)))
+          throw new IOException("failed to replace " + outFile);
+  }
+
+  static Tuple parseLine(String line, TupleDesc td, char fieldSeparator) throws IOException {
+      String[] els = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (els.length != td.numFields())
+          throw new IOException("BAD LINE : " + line);
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < els.length; i++) {
+          String s = els[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setField(i, new IntField(Integer.parseInt(s)));
+              } catch (NumberFormatException e) {
+                  throw new IOException("BAD LINE : " + line);
+              }
+          } else
+              t.setField(i, new StringField(s, td.getMaxLen(i)));
+      }
+      return t;
+  }
 }
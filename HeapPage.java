@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -13,15 +14,29 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /** Bytes of a slotted page header: number of slot entries and free space pointer. */
+    static final int SLOTTED_HEADER_SIZE = 4;
+    /** Bytes of one slot directory entry: record offset and record length. */
+    static final int SLOT_SIZE = 4;
+
     final HeapPageId pid;
     final TupleDesc td;
+    final boolean slotted;
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    int usedBytes;    /// bytes of live records, slotted pages only
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
+    /// the INT fields of the page by column and slot, for readBatch; null until needed again.
+    /// Scans sharing the page may call readBatch from several threads at once: the cache is
+    /// built whole under the page's monitor, then published through this volatile field.
+    /// It is cleared by changes to the page, made under an exclusive lock, so never while a
+    /// scan reads it.
+    private volatile int[][] columns;
+
     boolean isDirty;
     TransactionId transactionId;
 
@@ -37,6 +52,14 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tables whose TupleDesc declares field lengths
+     * ({@link TupleDesc#isVariableLength}) use a slotted format instead: a
+     * 2-byte count of slot entries and a 2-byte free space pointer, then a
+     * slot directory of (2-byte offset, 2-byte length) entries, with the
+     * variable-length records packed against the end of the page. A zero
+     * length marks an empty slot. Records are repacked every time the page
+     * is written, so space freed by deletes never fragments the page, and
+     * slot numbers (hence RecordIds) stay stable.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -44,17 +67,25 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = td.isVariableLength();
         this.numSlots = getNumTuples();
+        header = new byte[getHeaderSize()];
+        tuples = new Tuple[numSlots];
+
+        if (slotted) {
+            readSlottedPage(data);
+            setBeforeImage(data);
+            return;
+        }
+
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
+        // read the header slots of this page
         for (int i=0; i<header.length; i++)
             header[i] = dis.readByte();
         
-        tuples = new Tuple[numSlots];
         try{
-            // allocate and read the actual records of this page
+            // read the actual records of this page
             for (int i=0; i<tuples.length; i++)
                 tuples[i] = readNextTuple(dis, i);
         }catch(NoSuchElementException e){
@@ -62,7 +93,34 @@ public class HeapPage implements Page {
         }
         dis.close();
 
-        setBeforeImage();
+        setBeforeImage(data);
+    }
+
+    /**
+     * Read the slot directory and the live records of a slotted page. The
+     * slot bitmap is kept in memory only.
+     */
+    private void readSlottedPage(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int nEntries = buf.getShort(0) & 0xFFFF;
+        if (nEntries > numSlots)
+            throw new IOException("corrupted slot directory on page " + pid.getPageNumber());
+
+        try {
+            for (int i = 0; i < nEntries; i++) {
+                int pos = SLOTTED_HEADER_SIZE + i * SLOT_SIZE;
+                int offset = buf.getShort(pos) & 0xFFFF;
+                int length = buf.getShort(pos + 2) & 0xFFFF;
+                if (length == 0)
+                    continue;
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+                tuples[i] = readRecord(dis, i);
+                markSlotUsed(i, true);
+                usedBytes += length;
+            }
+        } catch (NoSuchElementException e) {
+            e.printStackTrace();
+        }
     }
 
     public static HeapPage newEmptyPage(HeapPageId pageId)
@@ -82,6 +140,8 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {
+        if (slotted)
+            return (BufferPool.getPageSize() - SLOTTED_HEADER_SIZE) / (SLOT_SIZE + td.getMinSize());
         int tupleSize = td.getSize();
         return (BufferPool.getPageSize() << 3) / ((tupleSize << 3) + 1);
     }
@@ -115,9 +175,14 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        setBeforeImage(getPageData());
+    }
+
+    /// the bytes a page was just read from are its before image; no need to re-encode them
+    private void setBeforeImage(byte[] data) {
         synchronized(oldDataLock)
         {
-            oldData = getPageData().clone();
+            oldData = data.clone();
         }
     }
 
@@ -151,10 +216,12 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                if (td.getFieldType(j) == Type.INT_TYPE)  /// kept unboxed, see Tuple
+                    t.setInt(j, dis.readInt());
+                else
+                    t.setField(j, td.getFieldType(j).parse(dis));
             }
-        } catch (java.text.ParseException e) {
+        } catch (java.text.ParseException | IOException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
@@ -162,6 +229,111 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Suck up one variable-length record of a slotted page.
+     */
+    private Tuple readRecord(DataInputStream dis, int slotId) throws NoSuchElementException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    t.setInt(j, dis.readInt());
+                else
+                    t.setField(j, td.getFieldType(j).parse(dis, td.getMaxLen(j)));
+            }
+        } catch (java.text.ParseException | IOException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of bytes t takes as a variable-length record of a
+     *         table with schema td.
+     */
+    static int getRecordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j).getLen(t.getField(j), td.getMaxLen(j));
+        return size;
+    }
+
+    /**
+     * @return true if t could be stored on an empty page of a table with
+     *         schema td.
+     */
+    static boolean fitsOnEmptyPage(TupleDesc td, Tuple t) {
+        if (!td.isVariableLength())
+            return td.getSize() < BufferPool.getPageSize();
+        return SLOTTED_HEADER_SIZE + SLOT_SIZE + getRecordSize(td, t) <= BufferPool.getPageSize();
+    }
+
+    private static byte[] encodeRecord(TupleDesc td, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    dos.writeInt(t.getInt(j));
+                else
+                    td.getFieldType(j).serialize(dos, t.getField(j), td.getMaxLen(j));
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Generates the slotted page image holding tuples, where tuples[i] is the
+     * record of slot i (or null for an empty slot). Trailing empty slots are
+     * dropped from the directory and live records are packed against the end
+     * of the page.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit in pageSize bytes
+     */
+    static byte[] createSlottedPageData(TupleDesc td, Tuple[] tuples, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int nEntries = tuples.length;
+        while (nEntries > 0 && tuples[nEntries - 1] == null)
+            nEntries--;
+
+        int freeEnd = pageSize;
+        int dirEnd = SLOTTED_HEADER_SIZE + nEntries * SLOT_SIZE;
+        for (int i = 0; i < nEntries; i++) {
+            if (tuples[i] == null)
+                continue;
+            byte[] rec = encodeRecord(td, tuples[i]);
+            freeEnd -= rec.length;
+            if (freeEnd < dirEnd)
+                throw new IllegalArgumentException("tuples overflow a " + pageSize + " bytes page");
+            System.arraycopy(rec, 0, data, freeEnd, rec.length);
+            int pos = SLOTTED_HEADER_SIZE + i * SLOT_SIZE;
+            buf.putShort(pos, (short) freeEnd);
+            buf.putShort(pos + 2, (short) rec.length);
+        }
+        buf.putShort(0, (short) nEntries);
+        buf.putShort(2, (short) freeEnd);
+        return data;
+    }
+
+    /**
+     * @return the number of slot directory entries this page writes, i.e.
+     *         one past its highest used slot.
+     */
+    private int getNumSlotEntries() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i))
+                return i + 1;
+        }
+        return 0;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -174,6 +346,9 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted)
+            return createSlottedPageData(td, tuples, BufferPool.getPageSize());
+
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -206,10 +381,11 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    if (td.getFieldType(j) == Type.INT_TYPE)
+                        dos.writeInt(tuples[i].getInt(j));
+                    else
+                        tuples[i].getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -264,6 +440,8 @@ public class HeapPage implements Page {
                 continue;
             if (tuple.theSameContAs(t)) {
                 int tupNo = tuple.getRecordId().tupleNo;
+                if (slotted)
+                    usedBytes -= getRecordSize(td, tuple);
                 markSlotUsed(tupNo, false);
                 tuples[tupNo] = null;
                 return;
@@ -272,6 +450,80 @@ public class HeapPage implements Page {
         throw new DbException("Trying to delete a tuple does not exist in thie page!");
     }
 
+    /**
+     * Set the given fields of the tuple in slot i to values, in place, so the
+     * tuple keeps its RecordId.
+     * @return false, leaving the page unchanged, if the changed record would
+     *         no longer fit on the page (slotted pages only)
+     * @throws DbException if slot i is empty, or a value has the wrong type
+     */
+    public boolean updateTuple(int i, int[] fields, Field[] values) throws DbException {
+        Tuple t = i >= 0 && i < numSlots ? tuples[i] : null;
+        if (t == null)
+            throw new DbException("Trying to update a tuple does not exist in thie page!");
+        for (int k = 0; k < fields.length; k++) {
+            if (values[k].getType() != td.getFieldType(fields[k]))
+                throw new DbException("updateTuple: type mismatch!");
+        }
+
+        if (slotted) {
+            int delta = 0;
+            for (int k = 0; k < fields.length; k++) {
+                Type type = td.getFieldType(fields[k]);
+                int maxLen = td.getMaxLen(fields[k]);
+                delta += type.getLen(values[k], maxLen) - type.getLen(t.getField(fields[k]), maxLen);
+            }
+            if (SLOTTED_HEADER_SIZE + getNumSlotEntries() * SLOT_SIZE + usedBytes + delta > BufferPool.getPageSize())
+                return false;
+            usedBytes += delta;
+        }
+        columns = null;
+        for (int k = 0; k < fields.length; k++) {
+            Field f = values[k];
+            if (!slotted && f.getType() == Type.STRING_TYPE)  /// fixed records store strings at the fixed length
+                f = new StringField(((StringField) f).getValue(), Type.STRING_LEN);
+            t.setField(fields[k], f);
+        }
+        return true;
+    }
+
+    /**
+     * @return the first used slot at or after from whose tuple satisfies all
+     *         of preds, or -1 if there is none.
+     */
+    public int nextMatch(List<Predicate> preds, int from) {
+        for (int i = from; i < numSlots; i++) {
+            if (tuples[i] != null && matches(tuples[i], preds))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Delete every tuple on the page that satisfies all of preds, by
+     * clearing its slot in place.
+     * @return the number of tuples deleted
+     */
+    public int deleteMatching(List<Predicate> preds) {
+        int n = 0;
+        for (int i = nextMatch(preds, 0); i >= 0; i = nextMatch(preds, i + 1)) {
+            if (slotted)
+                usedBytes -= getRecordSize(td, tuples[i]);
+            markSlotUsed(i, false);
+            tuples[i] = null;
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean matches(Tuple t, List<Predicate> preds) {
+        for (Predicate p : preds) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
@@ -284,8 +536,16 @@ public class HeapPage implements Page {
             throw new DbException("Trying to insert tuple to a fulled page!");
         //if (!t.getTupleDesc().equals(td))
         //    throw new DbException("insertTuple: tupleDesc mismatch!");
+        int recordSize = slotted ? getRecordSize(td, t) : 0;
+        int nEntries = slotted ? getNumSlotEntries() : 0;
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                if (slotted) {
+                    int entries = Math.max(nEntries, i + 1);
+                    if (SLOTTED_HEADER_SIZE + entries * SLOT_SIZE + usedBytes + recordSize > BufferPool.getPageSize())
+                        throw new DbException("Trying to insert tuple to a page without enough free space!");
+                    usedBytes += recordSize;
+                }
                 tuples[i] = t;
                 RecordId recordId = new RecordId(pid, i);
                 t.setRecordId(recordId);
@@ -318,6 +578,14 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
+        if (slotted) {
+            int used = 0;
+            for (Tuple t : tuples)
+                if (t != null) used++;
+            int free = BufferPool.getPageSize() - SLOTTED_HEADER_SIZE
+                    - getNumSlotEntries() * SLOT_SIZE - usedBytes;
+            return Math.min(numSlots - used, Math.max(free, 0) / (SLOT_SIZE + td.getMinSize()));
+        }
         int cnt = 0, idx = 0;
         byte[] header = this.header;
         for (byte b : header) {
@@ -344,12 +612,79 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        columns = null;
         if (value)
             header[i >> 3] |= 0x01 << (i % 8);
         else
             header[i >> 3] &= ~(0x01 << (i % 8));
     }
 
+    /**
+     * Append the tuples in slots from and up to batch, projected on fields
+     * cols (all fields if cols is null), until the batch is full. INT fields
+     * are copied a run of used slots at a time from column vectors the page
+     * keeps until it is next changed.
+     *
+     * @return the slot to continue from, numSlots if the page is done
+     */
+    int readBatch(int from, TupleBatch batch, int[] cols) {
+        int[][] columns = this.columns;
+        if (columns == null)
+            columns = buildColumns();
+
+        int n = batch.getTupleDesc().numFields();
+        boolean rids = batch.hasRecordIds();
+        int i = from;
+        int r = batch.size(), capacity = batch.capacity();
+        while (i < numSlots && r < capacity) {
+            if (!isSlotUsed(i)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < numSlots && r + (i - start) < capacity && isSlotUsed(i))
+                i++;
+            int len = i - start;
+            for (int c = 0; c < n; c++) {
+                int f = cols == null ? c : cols[c];
+                int[] ints = batch.getInts(c);
+                if (ints != null) {
+                    System.arraycopy(columns[f], start, ints, r, len);
+                } else {
+                    Field[] fields = batch.getFields(c);
+                    for (int k = 0; k < len; k++)
+                        fields[r + k] = tuples[start + k].getField(f);
+                }
+            }
+            if (rids) {
+                for (int k = 0; k < len; k++)
+                    batch.setRecordId(r + k, pid, start + k);
+            }
+            r += len;
+        }
+        batch.setSize(r);
+        return i;
+    }
+
+    /// the column vectors of readBatch, built once however many scans ask for them at a time
+    private synchronized int[][] buildColumns() {
+        int[][] columns = this.columns;
+        if (columns != null)
+            return columns;
+        columns = new int[td.numFields()][];
+        for (int f = 0; f < columns.length; f++) {
+            if (td.getFieldType(f) != Type.INT_TYPE)
+                continue;
+            columns[f] = new int[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] != null)
+                    columns[f][i] = tuples[i].getInt(f);
+            }
+        }
+        this.columns = columns;
+        return columns;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopsJoin joins each tuple of its outer child to the tuples of
+ * a B+ tree table found by looking up the outer tuple's join field in the
+ * table's index, instead of scanning the whole inner table for it.
+ * <p>
+ * The inner child is the plan that would otherwise be scanned: a SeqScan of
+ * a {@link BTreeFile} keyed on the join field, possibly under Filters. It
+ * is never opened; the scan tells which table, columns and transaction to
+ * read with, and the filters' predicates are applied to the tuples the
+ * index returns. {@link #canJoin} tells whether an inner plan has that form.
+ */
+public class IndexNestedLoopsJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private transient BTreeFile file;
+    private transient TransactionId tid;
+    private transient int[] columns;            /// of the inner scan; null: all columns
+    private transient TupleDesc innerTD;
+    private transient ArrayList<Predicate> filters;
+    private transient Predicate.Op indexOp;     /// pred, as inner field op outer field
+    private transient Tuple t1;
+    private transient DbFileIterator matches;   /// index entries for t1
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The inner relation: a SeqScan of a BTreeFile keyed on the
+     *            join field, possibly under Filters (see {@link #canJoin})
+     */
+    public IndexNestedLoopsJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether inner is a SeqScan, possibly under Filters, of a
+     *         BTreeFile whose key is field2 of inner, and whose index can
+     *         answer op.
+     */
+    public static boolean canJoin(Predicate.Op op, OpIterator inner, int field2) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return false;
+        SeqScan scan = scanOf(inner);
+        if (scan == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        int key = scan.getColumns() == null ? field2 : scan.getColumns()[field2];
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == key;
+    }
+
+    /// the SeqScan under the Filters of inner, or null if inner is anything else
+    private static SeqScan scanOf(OpIterator inner) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof SeqScan ? (SeqScan) inner : null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (!canJoin(pred.getOperator(), child2, pred.getField2()))
+            throw new DbException("no index on the inner join field");
+        SeqScan scan = scanOf(child2);
+        file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        tid = scan.transactionId;
+        columns = scan.getColumns();
+        innerTD = child2.getTupleDesc();
+        filters = new ArrayList<Predicate>();
+        for (OpIterator it = child2; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+            filters.add(((Filter) it).getPredicate());
+        indexOp = reverse(pred.getOperator());
+        child1.open();
+        super.open();
+    }
+
+    /// the op for "b op' a" that holds exactly when "a op b" does
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN: return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN: return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+        default: return op;
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        t1 = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    /**
+     * Looks every outer tuple up in the index of the inner table, and joins
+     * it to the entries found that pass the inner plan's filters.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches == null) {
+                if (!child1.hasNext())
+                    return null;
+                t1 = child1.next();
+                matches = file.indexIterator(tid, new IndexPredicate(indexOp, t1.getField(pred.getField1())));
+                matches.open();
+            }
+            while (matches.hasNext()) {
+                Tuple t2 = project(matches.next());
+                if (passes(t2) && pred.filter(t1, t2))
+                    return Tuple.merge(comboTD, t1, t2);
+            }
+            closeMatches();
+        }
+    }
+
+    /// an index entry as the inner scan would have returned it
+    private Tuple project(Tuple t) {
+        if (columns == null)
+            return t;
+        Tuple out = new Tuple(innerTD);
+        for (int i = 0; i < columns.length; i++)
+            out.copyField(i, t, columns[i]);
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : filters) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import com.sun.corba.se.impl.orb.DataCollectorBase;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -12,6 +13,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of child tuples handed to BufferPool.insertTuples at a time. */
+    static final int BATCH_SIZE = 1024;
+
     int cnt, tableId;
     OpIterator[] childs;
     TransactionId transactionId;
@@ -54,15 +58,20 @@ public class Insert extends Operator {
         childs[0].open();
         OpIterator opIterator = childs[0];
         BufferPool bufferPool = Database.getBufferPool();
-        while (opIterator.hasNext()) {
-            Tuple t = opIterator.next();
+        ArrayList<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            batch.clear();
+            while (batch.size() < BATCH_SIZE && opIterator.hasNext())
+                batch.add(opIterator.next());
+            if (batch.isEmpty())
+                break;
             try {
-                bufferPool.insertTuple(transactionId, tableId, t);
+                bufferPool.insertTuples(transactionId, tableId, batch);
             } catch (IOException e) {
                 e.printStackTrace();
                 //System.exit(-1);
             }
-            cnt++;
+            cnt += batch.size();
         }
         Tuple t = new Tuple(td);
         t.setField(0, new IntField(cnt));
@@ -91,7 +100,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         Tuple t = resTuple;
@@ -0,0 +1,138 @@
+package simpledb;
+
+/**
+ * IntColumnFilter evaluates a comparison against a constant over an INT
+ * column vector into a selection bitmap, bit r of word r / 64 being set if
+ * row r satisfies it.
+ * <p>
+ * Each word is built from 64 rows with arithmetic rather than comparisons,
+ * so there is no branch on the data to mispredict, and the fixed-length
+ * inner loop is unrolled by the JIT. Every {@link Predicate.Op} reduces to a "less than"
+ * or an "equals" kernel, possibly with the result inverted.
+ */
+public class IntColumnFilter {
+
+    /** Number of rows covered by one word of a bitmap. */
+    public static final int WORD_SIZE = 64;
+
+    /**
+     * @return the number of words of a bitmap over n rows.
+     */
+    public static int words(int n) {
+        return (n + WORD_SIZE - 1) / WORD_SIZE;
+    }
+
+    /**
+     * Set the bits of bitmap for the rows r < n with col[r] op v, and clear
+     * the others. Bits past n are left clear.
+     *
+     * @param bitmap an array of at least words(n) words
+     */
+    public static void select(int[] col, int n, Predicate.Op op, int v, long[] bitmap) {
+        switch (op) {
+        case EQUALS: case LIKE:
+            equal(col, n, v, bitmap);
+            break;
+        case NOT_EQUALS:
+            equal(col, n, v, bitmap);
+            invert(bitmap, n);
+            break;
+        case LESS_THAN:
+            less(col, n, v, bitmap);
+            break;
+        case GREATER_THAN_OR_EQ:
+            less(col, n, v, bitmap);
+            invert(bitmap, n);
+            break;
+        case LESS_THAN_OR_EQ:
+            if (v == Integer.MAX_VALUE)
+                all(bitmap, n);
+            else
+                less(col, n, v + 1, bitmap);
+            break;
+        case GREATER_THAN:
+            if (v == Integer.MAX_VALUE)
+                all(bitmap, n);
+            else
+                less(col, n, v + 1, bitmap);
+            invert(bitmap, n);
+            break;
+        }
+    }
+
+    /**
+     * Write the rows whose bits are set in bitmap, in increasing order, to
+     * sel, which must have room for n rows.
+     *
+     * @return the number of rows written
+     */
+    public static int toSelection(long[] bitmap, int n, int[] sel) {
+        int k = 0;
+        for (int w = 0; w < words(n); w++) {
+            long bits = bitmap[w];
+            int base = w * WORD_SIZE;
+            if (Long.bitCount(bits) < WORD_SIZE / 4) {
+                /// sparse word: visit just its set bits
+                while (bits != 0) {
+                    sel[k++] = base + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            } else {
+                /// dense word: write every row, advancing past the selected ones only
+                int end = Math.min(WORD_SIZE, n - base);
+                for (int j = 0; j < end; j++) {
+                    sel[k] = base + j;
+                    k += (int) (bits >>> j) & 1;
+                }
+            }
+        }
+        return k;
+    }
+
+    private static void less(int[] col, int n, int v, long[] bitmap) {
+        int full = n - n % WORD_SIZE;
+        for (int base = 0; base < full; base += WORD_SIZE) {
+            long w = 0;
+            for (int j = 0; j < WORD_SIZE; j++)
+                w |= (((long) col[base + j] - v) >>> 63) << j;
+            bitmap[base / WORD_SIZE] = w;
+        }
+        if (full < n) {
+            long w = 0;
+            for (int j = 0; full + j < n; j++)
+                w |= (((long) col[full + j] - v) >>> 63) << j;
+            bitmap[full / WORD_SIZE] = w;
+        }
+    }
+
+    private static void equal(int[] col, int n, int v, long[] bitmap) {
+        int full = n - n % WORD_SIZE;
+        for (int base = 0; base < full; base += WORD_SIZE) {
+            long w = 0;
+            for (int j = 0; j < WORD_SIZE; j++)
+                w |= (((col[base + j] ^ v) & 0xFFFFFFFFL) - 1 >>> 63) << j;
+            bitmap[base / WORD_SIZE] = w;
+        }
+        if (full < n) {
+            long w = 0;
+            for (int j = 0; full + j < n; j++)
+                w |= (((col[full + j] ^ v) & 0xFFFFFFFFL) - 1 >>> 63) << j;
+            bitmap[full / WORD_SIZE] = w;
+        }
+    }
+
+    private static void all(long[] bitmap, int n) {
+        for (int w = 0; w < words(n); w++)
+            bitmap[w] = 0;
+        invert(bitmap, n);
+    }
+
+    /// flip the bits of rows < n, keeping the ones past n clear
+    private static void invert(long[] bitmap, int n) {
+        int words = words(n);
+        for (int w = 0; w < words; w++)
+            bitmap[w] = ~bitmap[w];
+        if (n % WORD_SIZE != 0)
+            bitmap[words - 1] &= (1L << (n % WORD_SIZE)) - 1;
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * An open-addressing hash map from int keys to objects, for operators that
+ * key on INT columns and should not box a key per row.
+ * <p>
+ * Keys are probed linearly in a power-of-two table that is doubled when it
+ * becomes more than half full. Entries cannot be removed.
+ */
+public class IntHashMap<V> {
+
+    private int[] keys;
+    private Object[] values;    /// null: empty slot
+    private int mask;
+    private int size;
+
+    public IntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys the map should hold before growing.
+     */
+    public IntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new int[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = hash(key) & mask;
+        while (values[i] != null && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * @return the value for key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slot(key)];
+    }
+
+    /**
+     * Map key to value, which must not be null.
+     *
+     * @return the previous value for key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("IntHashMap: null value");
+        int i = slot(key);
+        V old = (V) values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (old == null && ++size * 2 > keys.length)
+            grow();
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pass every value of the map to action, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object v : values) {
+            if (v != null)
+                action.accept((V) v);
+        }
+    }
+
+    /**
+     * Pass every value of the map and its key to action, in no particular
+     * order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(ObjIntConsumer<? super V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                action.accept((V) values[i], keys[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -97,6 +97,39 @@ public class IntHistogram {
         ntupls++;
     }
 
+    /**
+     * Add count copies of value v to the histogram.
+     */
+    public void addValues(int v, int count) {
+        buckets[getIndex(v)] += count;
+        ntupls += count;
+    }
+
+    /**
+     * Add the values counted by other, a histogram over a range within this
+     * one's, taking the values of each of its buckets to be at the bucket's
+     * middle. If both histograms have the same range and number of buckets
+     * this is exact.
+     */
+    public void addAll(IntHistogram other) {
+        for (int i = 0; i < other.n; i++) {
+            if (other.buckets[i] == 0)
+                continue;
+            long v = other.min + (long) ((i + 0.5) * other.width);
+            addValues((int) Math.min(Math.max(v, other.min), other.max - 1L), other.buckets[i]);
+        }
+    }
+
+    /**
+     * @return a histogram with as many buckets as this one over [min, max]
+     *         (which must include this one's range), holding this one's values.
+     */
+    public IntHistogram rebucket(int min, int max) {
+        IntHistogram h = new IntHistogram(n, min, max);
+        h.addAll(this);
+        return h;
+    }
+
     private double estimateSelectivityGreater(int v)
     {
         if (v < min)
@@ -160,8 +193,18 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        /// the chance that two values are equal, taking each bucket to hold
+        /// as many distinct values as it can, spread evenly
+        if (ntupls == 0)
+            return 1.0;
+        double sel = 0;
+        for (int b : buckets) {
+            if (b == 0)
+                continue;
+            double distinct = Math.max(1.0, Math.min(width, b));
+            sel += ((double) b / ntupls) * ((double) b / ntupls / distinct);
+        }
+        return sel;
     }
     
     /**
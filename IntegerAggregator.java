@@ -1,15 +1,14 @@
 package simpledb;
-import sun.reflect.generics.tree.Tree;
-
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * SUM_COUNT returns two values, the sum and the count of the field, as the
+ * partial aggregates of an AVG; SC_AVG is the average of such partial
+ * aggregates, read from the aggregate field (the sums) and the field after
+ * it (the counts).
  */
-public class IntegerAggregator implements Aggregator {
+public class IntegerAggregator extends HashAggregator<IntegerAggregator.IntegerAggregateInfo> {
     static class IntegerAggregateInfo {
         int cnt = 0, sum = 0;
         int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
@@ -18,15 +17,8 @@ public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    Op what;
-    int afield;
-    int gbfield;
-    Type gbfieldtype;
-
-    //Tuple cacheTuple;   /// used for get aggField and groupBy fields' names...
-    Field dimKey; // used for not group-by aggregate
-    OpIterator iterator = null;
-    TreeMap<Field, IntegerAggregateInfo> gbOutput;
+    final Op what;
+    final int afield;
 
     /**
      * Aggregate constructor
@@ -44,92 +36,124 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
+        this(groupFields(gbfield), groupFieldTypes(gbfield, gbfieldtype), afield, what, 0);
+    }
+
+    /**
+     * Aggregate constructor, grouping on several fields.
+     *
+     * @param gbfields
+     *            the 0-based indices of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group by fields
+     * @see #IntegerAggregator(int, Type, int, Op)
+     */
+    public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+        this(gbfields, gbfieldtypes, afield, what, 0);
+    }
+
+    private IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what, int level) {
+        super(gbfields, gbfieldtypes, level);
         this.afield = afield;
         this.what = what;
+    }
+
+    protected IntegerAggregateInfo newGroup() {
+        return IntegerAggregateInfo.newIntegerAggregateInfo();
+    }
+
+    protected int[] aggregateFields() {
+        return what == Op.SC_AVG ? new int[] { afield, afield + 1 } : new int[] { afield };
+    }
+
+    protected IntegerAggregator newAggregator(int[] gbfields, int[] afields, int level) {
+        return new IntegerAggregator(gbfields, gbfieldtypes, afields[0], what, level);
+    }
 
-        gbOutput = new TreeMap<>((x, y) -> {
-            if (x.compare(Predicate.Op.LESS_THAN, y)) return -1;
-            if (x.compare(Predicate.Op.EQUALS, y)) return 0;
-            else return 1;
-        });
-        if (gbfield == Aggregator.NO_GROUPING) {
-            dimKey = new IntField(0);
-            gbOutput.put(dimKey, IntegerAggregateInfo.newIntegerAggregateInfo());
+    protected Type[] aggregateTypes() {
+        if (what == Op.SUM_COUNT)
+            return new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        return new Type[] { Type.INT_TYPE };
+    }
+
+    protected void setResults(IntegerAggregateInfo info, Tuple out, int first) {
+        if (what == Op.SUM_COUNT) {
+            out.setField(first, new IntField(info.sum));
+            out.setField(first + 1, new IntField(info.cnt));
+            return;
         }
+        out.setField(first, new IntField(evalOperator(info, what)));
     }
 
-    /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
-     * 
-     * @param tup
-     *            the Tuple containing an aggregate field and a group-by field
-     */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        //cacheTuple = tup;
-        int val = ((IntField) tup.getField(afield)).getValue();
-        Field key = gbfield == NO_GROUPING ? dimKey : tup.getField(gbfield);
-        IntegerAggregateInfo aggregateInfo = gbOutput.get(key);
-        if (aggregateInfo == null) {
-            aggregateInfo = IntegerAggregateInfo.newIntegerAggregateInfo();
-            gbOutput.put(key, aggregateInfo);
+    protected void merge(IntegerAggregateInfo info, Tuple tup) {
+        if (what == Op.SC_AVG) {
+            info.sum += tup.getInt(afield);
+            info.cnt += tup.getInt(afield + 1);
+            return;
+        }
+        merge(info, tup.getInt(afield));
+    }
+
+    protected void merge(IntegerAggregateInfo info, TupleBatch batch, int r) {
+        if (what == Op.SC_AVG) {
+            info.sum += batch.getInts(afield)[r];
+            info.cnt += batch.getInts(afield + 1)[r];
+            return;
         }
-        aggregateInfo.cnt++;
-        aggregateInfo.sum += val;
-        aggregateInfo.max = Integer.max(aggregateInfo.max, val);
-        aggregateInfo.min = Integer.min(aggregateInfo.min, val);
+        merge(info, batch.getInts(afield)[r]);
+    }
+
+    private static void merge(IntegerAggregateInfo info, int val) {
+        info.cnt++;
+        info.sum += val;
+        info.max = Integer.max(info.max, val);
+        info.min = Integer.min(info.min, val);
     }
 
     /**
-     * Create a OpIterator over group aggregate results.
-     * 
-     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     * Merge a batch into the aggregate, reading the aggregate column as a
+     * vector. Consecutive rows of the same INT group are merged without
+     * looking the group up again.
      */
-    public OpIterator iterator() {
-        if (iterator != null)
-            return iterator;
-
-        TupleDesc td;
-        Type[] types; //String[] fieldNames;
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        if (gbfield == NO_GROUPING) {
-            types = new Type[]{Type.INT_TYPE};
-            //fieldNames = new String[] { cacheTuple.getTupleDesc().getFieldName(afield) };
-            td = new TupleDesc(types, null);
-            Tuple tuple = new Tuple(td);
-            IntField field = new IntField(evalOperator(gbOutput.get(dimKey), what));
-            tuple.setField(0, field);
-            tuples.add(tuple);
-        } else {
-            types = new Type[]{gbfieldtype, Type.INT_TYPE};
-            //fieldNames = new String[] { cacheTuple.getTupleDesc().getFieldName(gbfield),
-                    //cacheTuple.getTupleDesc().getFieldName(afield)};
-            //td = new TupleDesc(types, fieldNames);
-            td = new TupleDesc(types, null);
-            for (Map.Entry<Field, IntegerAggregateInfo> entry : gbOutput.entrySet()) {
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, entry.getKey());
-                tuple.setField(1, new IntField(evalOperator(entry.getValue(), what)));
-                tuples.add(tuple);
+    public void mergeBatchIntoGroup(TupleBatch batch) throws DbException {
+        if (what == Op.SC_AVG) {
+            super.mergeBatchIntoGroup(batch);
+            return;
+        }
+        int[] vals = batch.getInts(afield);
+        int n = batch.size();
+        if (gbfields.length == 0) {
+            IntegerAggregateInfo info = group(batch, 0);
+            int sum = info.sum, min = info.min, max = info.max;
+            for (int r = 0; r < n; r++) {
+                int val = vals[r];
+                sum += val;
+                min = Integer.min(min, val);
+                max = Integer.max(max, val);
             }
+            info.cnt += n;
+            info.sum = sum;
+            info.min = min;
+            info.max = max;
+            return;
+        }
+
+        for (int r = 0; r < n; r++) {
+            IntegerAggregateInfo info = group(batch, r);
+            if (info != null)       /// else spilled
+                merge(info, vals[r]);
         }
-        iterator = new TupleIterator(td, tuples);
-        return iterator;
     }
 
     private int evalOperator(IntegerAggregateInfo info, Op what)
     {
         switch (what) {
-            case AVG: return info.sum / info.cnt;
+            case AVG: case SC_AVG: return info.sum / info.cnt;
             case MAX: return info.max;
             case MIN: return info.min;
-            case SUM: case SC_AVG: return info.sum;
-            case COUNT: case SUM_COUNT: return info.cnt;
+            case SUM: return info.sum;
+            case COUNT: return info.cnt;
             default: System.exit(-1); return -1;
         }
     }
@@ -130,16 +130,7 @@ public class Join extends Operator {
 
     private Tuple joinTuple(Tuple tuple1, Tuple tuple2)
     {
-        TupleDesc td = getTupleDesc();
-        Tuple joinedTuple = new Tuple(td);
-
-        int idx = tuple1.getTupleDesc().numFields();
-        Field[] fields = Arrays.copyOf(tuple1.getFields(), idx + tuple2.getTupleDesc().numFields());
-        Iterator<Field> iterator = tuple2.fields();
-        while (iterator.hasNext())
-            fields[idx++] = iterator.next();
-        joinedTuple.setFields(fields);
-        return joinedTuple;
+        return Tuple.merge(getTupleDesc(), tuple1, tuple2);
     }
 
     @Override
@@ -38,6 +38,11 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is computed with the algorithm picked for it by
+     * {@link #orderJoins} (lj.algorithm). An index nested-loops join whose
+     * inner plan turns out not to be an indexed table scan falls back to a
+     * hash join for equality predicates, and to nested loops otherwise.
      * 
      * @param lj
      *            The join being considered
@@ -72,12 +77,38 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        LogicalJoinNode.Algorithm a = lj.algorithm;
+        if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS
+                && !IndexNestedLoopsJoin.canJoin(lj.p, plan2, t2id))
+            a = lj.p == Predicate.Op.EQUALS ? LogicalJoinNode.Algorithm.HASH
+                    : LogicalJoinNode.Algorithm.NESTED_LOOPS;
+
+        switch (a) {
+        case BLOCK_NESTED_LOOPS:
+            j = new BlockNestedLoopsJoin(p, plan1, plan2);
+            break;
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOPS:
+            j = new IndexNestedLoopsJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /** Tuples in a page of a table, a spill file or a B+ tree leaf, roughly */
+    private static final int TUPLES_PER_PAGE = 100;
+    /** Pages read to look a key up in a B+ tree: its root-to-leaf path */
+    private static final int INDEX_PROBE_PAGES = 3;
+
     /**
      * Estimate the cost of a join.
      * 
@@ -86,7 +117,9 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * This is the cost of the cheapest algorithm that can compute j,
+     * assuming neither side is an indexed table; see {@link #chooseAlgorithm}.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -106,19 +139,123 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        LogicalJoinNode.Algorithm a = chooseAlgorithm(j, card1, card2, cost1, cost2, false, false);
+        return estimateJoinCost(j, a, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of computing a join with a given algorithm, which
+     * must be able to compute it. Costs are in the units of
+     * {@link TableStats#estimateScanCost}: reading a page costs
+     * TableStats.IOCOSTPERPAGE, and handling a tuple in memory costs 1.
+     * <ul>
+     * <li>Nested loops scan the inner side once per outer tuple, and compare
+     * every pair.
+     * <li>Block nested loops scan it once per
+     * {@link BlockNestedLoopsJoin#DEFAULT_BLOCK_PAGES} pages of outer tuples.
+     * <li>A hash join reads each side once and hashes every tuple. When the
+     * outer side does not fit in {@link HashEquiJoin#MAP_SIZE} tuples,
+     * nearly all of both sides is also written to and read back from spill
+     * files.
+     * <li>Index nested loops read the outer side once and look each outer
+     * tuple up in the inner table's index, reading the leaf pages of the
+     * matches.
+     * <li>A sort-merge join reads each side once, after sorting those that
+     * are not indexed tables, which are read in key order. Sorts larger than
+     * {@link ExternalSort#RUN_SIZE} tuples write and read back their input
+     * once per merge pass.
+     * </ul>
+     *
+     * @param indexed1
+     *            whether the left-hand side is a base table stored in a B+
+     *            tree keyed on the join field
+     * @param indexed2
+     *            the same for the right-hand side
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm a,
+            int card1, int card2, double cost1, double cost2, boolean indexed1, boolean indexed2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + cost2 * card1 + cost1 + cost2;
+        }
+        switch (a) {
+        case HASH: {
+            double cost = cost1 + cost2 + card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                double spilled = (double) (card1 + card2) * (HashEquiJoin.NUM_PARTITIONS - 1)
+                        / HashEquiJoin.NUM_PARTITIONS;
+                cost += 2 * spilled * TableStats.IOCOSTPERPAGE / TUPLES_PER_PAGE;
+            }
+            return cost;
+        }
+        case BLOCK_NESTED_LOOPS: {
+            double blocks = Math.ceil((double) card1 / (BlockNestedLoopsJoin.DEFAULT_BLOCK_PAGES * TUPLES_PER_PAGE));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+        case INDEX_NESTED_LOOPS: {
+            double matches = j.p == Predicate.Op.EQUALS ? 1 : card2 * RANGE_CARDINALITY_HEURISTIC_RATE;
+            double probe = TableStats.IOCOSTPERPAGE * (INDEX_PROBE_PAGES + matches / TUPLES_PER_PAGE) + matches;
+            return cost1 + card1 * probe;
+        }
+        case SORT_MERGE:
+            return cost1 + cost2 + (indexed1 ? 0 : estimateSortCost(card1))
+                    + (indexed2 ? 0 : estimateSortCost(card2)) + card1 + card2;
+        default:
+            return cost1 + card1 * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * Estimate the cost of sorting card tuples with an {@link ExternalSort}.
+     */
+    private static double estimateSortCost(int card) {
+        if (card <= 1)
+            return 0;
+        double cost = card * (Math.log(Math.min(card, ExternalSort.RUN_SIZE)) / Math.log(2));
+        if (card > ExternalSort.RUN_SIZE) {
+            double runs = Math.ceil((double) card / ExternalSort.RUN_SIZE);
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(ExternalSort.MERGE_FAN_IN)));
+            cost += passes * (2.0 * card * TableStats.IOCOSTPERPAGE / TUPLES_PER_PAGE + card * Math.log(runs) / Math.log(2));
+        }
+        return cost;
+    }
+
+    /**
+     * Pick the cheapest algorithm for a join: nested loops or block nested
+     * loops, which compute any predicate; a hash join, for equality
+     * predicates; a sort-merge join, for equality and range predicates; or
+     * index nested loops, when the inner side is an indexed table.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, boolean, boolean)
+     */
+    public LogicalJoinNode.Algorithm chooseAlgorithm(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean indexed1, boolean indexed2) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOPS;
+        if (j instanceof LogicalSubplanJoinNode)
+            return best;
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2, indexed1, indexed2);
+        ArrayList<LogicalJoinNode.Algorithm> candidates = new ArrayList<LogicalJoinNode.Algorithm>();
+        candidates.add(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOPS);
+        if (j.p != Predicate.Op.NOT_EQUALS && j.p != Predicate.Op.LIKE) {
+            /// ahead of a hash join, so that it wins a tie, when both sides are in order already
+            candidates.add(LogicalJoinNode.Algorithm.SORT_MERGE);
+            if (indexed2)
+                candidates.add(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOPS);
+        }
+        if (j.p == Predicate.Op.EQUALS)
+            candidates.add(LogicalJoinNode.Algorithm.HASH);
+        for (LogicalJoinNode.Algorithm a : candidates) {
+            double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2, indexed1, indexed2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -309,6 +446,8 @@ public class JoinOptimizer {
             throws ParsingException {
 
         int size = joins.size();
+        if (size == 0)      /// a single table: nothing to order
+            return joins;
         Set<LogicalJoinNode> resKey = null;
         PlanCache pc = null, oldPc = new PlanCache();
         AuxIterator<LogicalJoinNode> iterator0 = AuxIterator.newAuxIterator(joins);
@@ -411,6 +550,7 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        boolean leftIsTable = true, rightIsTable = true;  /// not an earlier join's result
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -446,6 +586,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                leftIsTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -462,6 +603,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                rightIsTable = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -475,13 +617,20 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        boolean leftIndexed = leftIsTable && hasIndex(j.t1Alias, j.f1PureName);
+        boolean rightIndexed = rightIsTable && hasIndex(j.t2Alias, j.f2PureName);
+        LogicalJoinNode.Algorithm a1 = chooseAlgorithm(j, t1card, t2card, t1cost, t2cost,
+                leftIndexed, rightIndexed);
+        double cost1 = estimateJoinCost(j, a1, t1card, t2card, t1cost, t2cost, leftIndexed, rightIndexed);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        LogicalJoinNode.Algorithm a2 = chooseAlgorithm(j2, t2card, t1card, t2cost, t1cost,
+                rightIndexed, leftIndexed);
+        double cost2 = estimateJoinCost(j2, a2, t2card, t1card, t2cost, t1cost, rightIndexed, leftIndexed);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            a1 = a2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
@@ -496,7 +645,7 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        cc.plan.addElement(j.withAlgorithm(a1)); // prevbest is left -- add new join to end
         return cc;
     }
 
@@ -529,6 +678,23 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
+    /**
+     * Return true if the specified table is stored in a B+ tree keyed on
+     * field, so that it can be the inner side of an index nested-loops join
+     *
+     * @param tableAlias
+     *            The alias of the table in the query, or null for a subquery
+     * @param field
+     *            The pure name of the field
+     */
+    private boolean hasIndex(String tableAlias, String field) {
+        if (tableAlias == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(tableAlias));
+        return f instanceof BTreeFile
+                && ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(field);
+    }
+
     /**
      * Return true if a primary key field is joined by one of the joins in
      * joinlist
@@ -595,7 +761,7 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode("Join " + j + " by " + j.algorithm + " (Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
@@ -39,6 +39,8 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)    /// compare unboxed
+            return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZCodec is a small LZ77-family block codec, in the style of LZ4, used to
+ * compress HeapFile pages on disk. It favours speed over ratio: matches are
+ * found through a single hash table probe and decoding is a plain copy loop.
+ * <p>
+ * A compressed block is a series of sequences. Each sequence is a token byte
+ * (high nibble: literal count, low nibble: match length - 4, 15 meaning more
+ * length bytes follow, each adding up to 255), the literals, then a 2-byte
+ * little-endian match offset. The last sequence has literals only.
+ */
+public class LZCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+
+    /**
+     * @return an upper bound on the compressed size of n bytes.
+     */
+    public static int maxCompressedLength(int n) {
+        return n + n / 255 + 16;
+    }
+
+    /**
+     * Compress src.
+     *
+     * @return the compressed block; may be larger than src for data that
+     *         does not compress.
+     */
+    public static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[maxCompressedLength(n)];
+        int[] table = new int[1 << HASH_LOG];   /// position + 1 of the last occurrence, 0 = none
+
+        int anchor = 0, ip = 0, op = 0;
+        while (ip + MIN_MATCH <= n) {
+            int seq = readInt(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < n && src[ref + matchLen] == src[ip + matchLen])
+                matchLen++;
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+            ip += matchLen;
+            anchor = ip;
+        }
+        op = writeSequence(src, anchor, n - anchor, 0, 0, dst, op);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Decompress the block src[off, off+len) into a new array of rawLen bytes.
+     *
+     * @throws IOException if the block is corrupted or does not decode to
+     *         exactly rawLen bytes.
+     */
+    public static byte[] decompress(byte[] src, int off, int len, int rawLen) throws IOException {
+        byte[] dst = new byte[rawLen];
+        int ip = off, end = off + len, op = 0;
+        try {
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= end)
+                    break;  /// last sequence: literals only
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0)
+                    throw new IOException("corrupted compressed block: bad offset " + offset);
+                /// byte by byte: the match may overlap the bytes it produces
+                for (int i = 0; i < matchLen; i++)
+                    dst[op++] = dst[ref++];
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupted compressed block", e);
+        }
+        if (op != rawLen)
+            throw new IOException("corrupted compressed block: " + op + " bytes decoded, " + rawLen + " expected");
+        return dst;
+    }
+
+    private static int writeSequence(byte[] src, int litStart, int litLen, int offset, int matchLen,
+                                     byte[] dst, int op) {
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15)
+            op = writeLength(litLen - 15, dst, op);
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int ml = matchLen - MIN_MATCH;
+            token |= Math.min(ml, 15);
+            if (ml >= 15)
+                op = writeLength(ml - 15, dst, op);
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit implements LIMIT n OFFSET m: it skips the first m tuples of its
+ * child and returns the next n, and stops pulling tuples from the child as
+ * soon as it has returned them.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+
+    private transient int skipped;      /// of the offset tuples
+    private transient int returned;
+
+    /**
+     * @param limit
+     *            the number of tuples to return at most
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the tuples to limit
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("negative LIMIT or OFFSET");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        skipped = returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        skipped = returned = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (returned == limit)
+            return null;
+        for (; skipped < offset; skipped++) {
+            if (!child.hasNext())
+                return null;
+            child.next();
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    /**
+     * Passes on the batches of the child, cut down to the rows past the
+     * offset and within the limit.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        while (returned < limit) {
+            TupleBatch batch = child.nextBatch();
+            if (batch == null)
+                return null;
+            int skip = Math.min(offset - skipped, batch.size());
+            skipped += skip;
+            int n = Math.min(limit - returned, batch.size() - skip);
+            if (n == 0)
+                continue;
+            if (skip > 0 || n < batch.size()) {
+                int[] sel = batch.selection();
+                for (int k = 0; k < n; k++)
+                    sel[k] = skip + k;
+                batch.keep(sel, n);
+            }
+            returned += n;
+            return batch;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -23,6 +23,23 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The ways a join can be computed; see {@link JoinOptimizer#instantiateJoin}. */
+    public enum Algorithm {
+        /** {@link Join}: scan the inner relation once per outer tuple */
+        NESTED_LOOPS,
+        /** {@link BlockNestedLoopsJoin}: scan the inner relation once per block of outer tuples */
+        BLOCK_NESTED_LOOPS,
+        /** {@link HashEquiJoin}: hash the outer relation, probe with the inner one */
+        HASH,
+        /** {@link IndexNestedLoopsJoin}: look each outer tuple up in the inner table's index */
+        INDEX_NESTED_LOOPS,
+        /** {@link SortMergeJoin}: sort both relations on the join fields, unless they are already, and merge them */
+        SORT_MERGE
+    }
+
+    /** The algorithm the optimizer picked for this join */
+    public Algorithm algorithm = Algorithm.NESTED_LOOPS;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +80,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this join node to be computed with algorithm a. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.algorithm = a;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -29,12 +30,13 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> groupByFields;
+    /// the aggregates computed, in the order of the aggregate's output
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private boolean hasLimit = false;
+    private int limit, offset;
     private String query;
 //    private Query owner;
 
@@ -47,6 +49,8 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
         this.query = "";
     }
 
@@ -186,21 +190,49 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Any number of aggregates may be added; they are all
+        computed in one pass over the same groups.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupBy(gfield);
+    }
+
+    /** Add an aggregate over the field to the query, unless the same
+        aggregate was added already.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
+        if (aggregateIndex(op, afield) < 0)
+            aggregates.addElement(new LogicalSelectListNode(op, afield));
+    }
+
+    /** Add a GROUP BY field to the query, after those added already.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /// the index of aggregate op(afield) among the aggregates, or -1
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode a = aggregates.elementAt(i);
+            if (a.aggOp.equalsIgnoreCase(op) && a.fname.equals(afield))
+                return i;
+        }
+        return -1;
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -216,6 +248,20 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: return at most limit tuples, after skipping the first offset.
+        Combined with an ORDER BY, it is planned as a single {@link TopN}.
+        @param limit the number of tuples to return at most
+        @param offset the number of tuples to skip, 0 if there is no OFFSET
+     * @throws ParsingException if either is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+        hasLimit = true;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +317,137 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Estimated rows an aggregation or hash join reads, or a scan reads from its table, past which it is split among threads by exchanges. */
+    public static final int PARALLEL_CARDINALITY = 100000;
+    /** Estimated rows of the build side of a parallel hash join up to which it is broadcast rather than partitioned. */
+    public static final int BROADCAST_CARDINALITY = 10000;
+
+    /// the number of threads to split large aggregations and joins among
+    private static int parallelism() {
+        return ForkJoinPool.commonPool().getParallelism();
+    }
+
+    /// the estimated number of rows of a subplan, from the table statistics
+    private int estimateCardinality(OpIterator plan, Map<String,TableStats> baseTableStats) {
+        if (plan instanceof Operator) {
+            OperatorCardinality.updateOperatorCardinality((Operator) plan, getTableAliasToIdMapping(), baseTableStats);
+            return ((Operator) plan).getEstimatedCardinality();
+        }
+        if (plan instanceof SeqScan) {
+            TableStats s = baseTableStats.get(((SeqScan) plan).getTableName());
+            return s == null ? 0 : s.estimateTableCardinality(1.0);
+        }
+        return 0;
+    }
+
+    /** Split a large hash join among threads: both inputs are partitioned on
+     *  their join fields, or a small build side is broadcast, and a join per
+     *  partition runs under a {@link Gather}.
+     */
+    private OpIterator parallelHashJoin(HashEquiJoin j, Map<String,TableStats> baseTableStats) {
+        int n = parallelism();
+        if (n < 2)
+            return j;
+        OpIterator[] children = j.getChildren();
+        int card1 = estimateCardinality(children[0], baseTableStats);
+        int card2 = estimateCardinality(children[1], baseTableStats);
+        if ((long) card1 + card2 < PARALLEL_CARDINALITY)
+            return j;
+
+        JoinPredicate p = j.getJoinPredicate();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        OpIterator[] builds = card1 <= BROADCAST_CARDINALITY
+                ? Broadcast.broadcast(parallelScan(children[0], n, baseTableStats), n, pool)
+                : HashRepartition.partition(parallelScan(children[0], n, baseTableStats), p.getField1(), n, pool);
+        OpIterator[] probes = HashRepartition.partition(parallelScan(children[1], n, baseTableStats),
+                p.getField2(), n, pool);
+        OpIterator[] joins = new OpIterator[n];
+        for (int i = 0; i < n; i++)
+            joins[i] = new HashEquiJoin(p, builds[i], probes[i]);
+        return new Gather(joins);
+    }
+
+    /** The pipelines to run plan on n threads: when plan is a large scan
+     *  of a HeapFile, possibly under Filters, the scans {@link SeqScan#split}
+     *  off it, each under Filters of its own; else just plan.
+     */
+    private OpIterator[] parallelScan(OpIterator plan, int n, Map<String,TableStats> baseTableStats) {
+        OpIterator[] serial = new OpIterator[] { plan };
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        OpIterator base = plan;
+        while (base instanceof Filter) {
+            preds.add(((Filter) base).getPredicate());
+            base = ((Filter) base).getChildren()[0];
+        }
+        if (n < 2 || !(base instanceof SeqScan) || estimateCardinality(base, baseTableStats) < PARALLEL_CARDINALITY)
+            return serial;
+
+        SeqScan[] scans;
+        try {
+            scans = ((SeqScan) base).split(n);
+        } catch (DbException e) {
+            return serial;      /// not a HeapFile
+        }
+        OpIterator[] pipelines = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            pipelines[i] = scans[i];
+            for (int k = preds.size() - 1; k >= 0; k--)
+                pipelines[i] = new Filter(preds.get(k), pipelines[i]);
+        }
+        return pipelines;
+    }
+
+    /// plan, or a Gather of the pipelines that run it on several threads
+    private OpIterator gatherScan(OpIterator plan, Map<String,TableStats> baseTableStats) {
+        OpIterator[] pipelines = parallelScan(plan, parallelism(), baseTableStats);
+        return pipelines.length > 1 ? new Gather(pipelines) : plan;
+    }
+
+    /** The aggregation of node, split among threads when node is large.
+     *  When node runs as several pipelines (a split scan, or the inputs of
+     *  a Gather) and there are fewer groups than rows, each pipeline
+     *  computes partial aggregates and a final Aggregate merges them (see
+     *  {@link Aggregate#partial}). Otherwise a large grouped aggregation is
+     *  partitioned on the first group by field, with an Aggregate per
+     *  partition under a {@link Gather}.
+     */
+    private OpIterator parallelAggregate(OpIterator node, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            Map<String,TableStats> baseTableStats) {
+        Aggregate serial = new Aggregate(node, afields, gfields, aops);
+        int n = parallelism();
+        if (n < 2)
+            return serial;
+
+        OpIterator[] pipelines = node instanceof Gather ? ((Gather) node).getChildren() : parallelScan(node, n, baseTableStats);
+        int card = estimateCardinality(node, baseTableStats);
+        int groups = estimateCardinality(serial, baseTableStats);
+        if (pipelines.length > 1 && (gfields.length == 0 || (long) groups * pipelines.length < card)
+                && hasPartialAggregates(node.getTupleDesc(), afields, aops)) {
+            Aggregate[] partials = new Aggregate[pipelines.length];
+            for (int i = 0; i < partials.length; i++)
+                partials[i] = Aggregate.partial(pipelines[i], afields, gfields, aops);
+            return partials[0].merging(new Gather(partials));
+        }
+        if (gfields.length == 0 || card < PARALLEL_CARDINALITY)
+            return serial;
+
+        HashRepartition[] parts = HashRepartition.partition(pipelines, gfields[0], n, ForkJoinPool.commonPool());
+        OpIterator[] aggs = new OpIterator[n];
+        for (int i = 0; i < n; i++)
+            aggs[i] = new Aggregate(parts[i], afields, gfields, aops);
+        return new Gather(aggs);
+    }
+
+    /// whether every aggregate can be computed in two phases: sums and averages of INTs only
+    private static boolean hasPartialAggregates(TupleDesc td, int[] afields, Aggregator.Op[] aops) {
+        for (int i = 0; i < afields.length; i++) {
+            if ((aops[i] == Aggregator.Op.SUM || aops[i] == Aggregator.Op.AVG)
+                    && td.getFieldType(afields[i]) != Type.INT_TYPE)
+                return false;
+        }
+        return true;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -285,6 +462,16 @@ public class LogicalPlan {
      *  @return A OpIterator representing this plan.
      */ 
     public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, true);
+    }
+
+    /** Convert this LogicalPlan into a physicalPlan, as {@link #physicalPlan(TransactionId, Map, boolean)}
+     *   does, but only splitting large scans, joins and aggregations among threads if parallel is set.
+     *  @param parallel false for the plan under an Insert, Delete or Update, which changes pages on
+     *    the caller's thread and must not do so while threads of the same transaction read them
+     */
+    public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain,
+            boolean parallel) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
@@ -294,7 +481,8 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                         getScanColumns(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -336,9 +524,18 @@ public class LogicalPlan {
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
+            /// filters stack directly over the table's scan: let it skip pages too
+            OpIterator base = subplan;
+            while (base instanceof Filter)
+                base = ((Filter) base).getChildren()[0];
+            if (base instanceof SeqScan)
+                ((SeqScan) base).addPredicate(p);
+
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            /// stats are per base table column, and the scan below may be projected
+            double sel= s.estimateSelectivity(Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -383,6 +580,8 @@ public class LogicalPlan {
             
             OpIterator j;
             j = jo.instantiateJoin(lj,plan1,plan2);
+            if (j instanceof HashEquiJoin && !isSubqueryJoin && parallel)
+                j = parallelHashJoin((HashEquiJoin) j, baseTableStats);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -408,36 +607,61 @@ public class LogicalPlan {
         
         OpIterator node =  (OpIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        boolean hasAgg = !aggregates.isEmpty();
+        if (hasAgg) {
+            TupleDesc td = node.getTupleDesc();
+            int[] afields = new int[aggregates.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+            int[] gfields = new int[groupByFields.size()];
+            try {
+                for (int i = 0; i < afields.length; i++) {
+                    LogicalSelectListNode a = aggregates.elementAt(i);
+                    afields[i] = td.fieldNameToIndex(a.fname);
+                    aops[i] = getAggOp(a.aggOp);
+                }
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown aggregate field in SELECT list");
+            }
+            for (int i = 0; i < gfields.length; i++) {
+                try {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " +  groupByFields.elementAt(i) + " in GROUP BY statement");
+                }
+            }
+            try {
+                node = parallel ? parallelAggregate(node, afields, gfields, aops, baseTableStats)
+                        : new Aggregate(node, afields, gfields, aops);
+            } catch (IllegalArgumentException e) {
+                throw new simpledb.ParsingException(e);
+            }
+        } else if (!groupByFields.isEmpty()) {
+            throw new ParsingException("GROUP BY without aggregation.");
+        } else if (parallel) {
+            node = gatherScan(node, baseTableStats);
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
-                }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                /// aggregate values follow the group by fields in the aggregate's output
+                int id = aggregateIndex(si.aggOp, si.fname);
+                if (id < 0)
+                    throw new ParsingException("Unknown aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list");
+                id += groupByFields.size();
+                outFields.add(id);
+                outTypes.add(node.getTupleDesc().getFieldType(id));
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int id = groupByFields.indexOf(si.fname);
+                    if (id < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
-                    TupleDesc td = node.getTupleDesc();
-                    int  id;
-                    try {
-                        id = td.fieldNameToIndex(groupByField);
-                    } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
-                    }
-                    outTypes.add(td.getFieldType(id));
+                    outFields.add(id);
+                    outTypes.add(node.getTupleDesc().getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
                     for ( i = 0; i < td.numFields(); i++) {
@@ -458,29 +682,75 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
-            TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
-            try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
-            } catch (NoSuchElementException e) {
-                throw new simpledb.ParsingException(e);
-            } catch (IllegalArgumentException e) {
-                throw new simpledb.ParsingException(e);
-            }
-            node = aggNode;
-        }
-
-        if (hasOrderBy) {
+        if (hasOrderBy && hasLimit) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, offset, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (hasLimit) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** Find the columns of a scanned table that the rest of the plan refers to,
+     *  so that a column store only reads those.
+     *  @param table the scan node
+     *  @return the indices of the referenced columns in table order, or null if
+     *    the scan should return every column (the table is not a ColumnFile, or
+     *    the query selects *)
+     */
+    private int[] getScanColumns(LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof ColumnFile))
+            return null;
+
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode a : aggregates)
+            names.add(a.fname);
+        names.addAll(groupByFields);
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = file.getTupleDesc();
+        boolean[] used = new boolean[td.numFields()];
+        int n = 0;
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || !parts[0].equals(table.alias))
+                continue;
+            try {
+                int i = td.fieldNameToIndex(parts[1]);
+                if (!used[i]) {
+                    used[i] = true;
+                    n++;
+                }
+            } catch (NoSuchElementException e) {
+                //unknown fields are reported when the plan is built
+            }
+        }
+        if (n == td.numFields())
+            return null;
+
+        int[] columns = new int[n];
+        for (int i = 0, j = 0; i < used.length; i++)
+            if (used[i])
+                columns[j++] = i;
+        return columns;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
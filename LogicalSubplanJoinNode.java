@@ -38,4 +38,10 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         return j2;
     }
 
+    public LogicalSubplanJoinNode withAlgorithm(Algorithm a) {
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        j2.algorithm = a;
+        return j2;
+    }
+
 }
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the pages of a HeapFile to the scans that share them, in morsels
+ * of MORSEL_PAGES consecutive pages. A scan claims a new morsel whenever it
+ * is done with its last one, so scans on fast threads read more of the file
+ * than slow ones and all of them run out of pages at about the same time.
+ * <p>
+ * Every page is handed out once per run, a run being the time it takes each
+ * of the scans to be opened once: the first scan opened after all of them
+ * were opened starts handing out the file again from its first page.
+ *
+ * @see SeqScan#split(int)
+ */
+class Morsels {
+
+    /** Number of consecutive pages claimed by a scan at a time. */
+    static final int MORSEL_PAGES = 16;
+
+    private final int scans;
+    private int opened;     /// scans opened in the current run
+    private final AtomicInteger next = new AtomicInteger();
+
+    Morsels(int scans) {
+        this.scans = scans;
+    }
+
+    int getScans() {
+        return scans;
+    }
+
+    /**
+     * Note that one of the scans is opened.
+     */
+    synchronized void open() {
+        if (opened == scans) {
+            opened = 0;
+            next.set(0);
+        }
+        opened++;
+    }
+
+    /**
+     * @return the first page of the next morsel, or -1 if the first numPages
+     *         pages have all been handed out.
+     */
+    int claim(int numPages) {
+        if (next.get() >= numPages)
+            return -1;
+        int first = next.getAndAdd(MORSEL_PAGES);
+        return first < numPages ? first : -1;
+    }
+}
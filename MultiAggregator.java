@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Knows how to compute several aggregates over the same groups in one pass.
+ * Each group holds the running aggregate of every one of them, kept and
+ * merged by an {@link IntegerAggregator} or {@link StringAggregator} for the
+ * field aggregated; those aggregators are only used for their running
+ * aggregates, not to group tuples.
+ */
+public class MultiAggregator extends HashAggregator<Object[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] whats;
+    private final List<HashAggregator<Object>> aggregates;
+    private final int[] firstFields;    /// of each aggregate's fields in aggregateFields()
+    private final int[] firstValues;    /// of each aggregate's values in aggregateTypes()
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indices of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group by fields
+     * @param afields
+     *            the 0-based indices of the fields to aggregate, one per
+     *            aggregate
+     * @param afieldtypes
+     *            the types of those fields
+     * @param whats
+     *            the aggregation operator of each aggregate
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] whats) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, whats, 0);
+    }
+
+    private MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] whats,
+            int level) {
+        super(gbfields, gbfieldtypes, level);
+        if (afields.length != afieldtypes.length || afields.length != whats.length)
+            throw new IllegalArgumentException("one field, type and operator per aggregate");
+        this.afields = afields;
+        this.afieldtypes = afieldtypes;
+        this.whats = whats;
+        aggregates = new ArrayList<HashAggregator<Object>>(afields.length);
+        int[] none = new int[0];
+        for (int i = 0; i < afields.length; i++) {
+            HashAggregator<?> a = afieldtypes[i] == Type.INT_TYPE
+                    ? new IntegerAggregator(none, new Type[0], afields[i], whats[i])
+                    : new StringAggregator(none, new Type[0], afields[i], whats[i]);
+            aggregates.add(ofObjects(a));
+        }
+        /// an aggregate may read or return more than one field (SC_AVG, SUM_COUNT)
+        firstFields = new int[afields.length + 1];
+        firstValues = new int[afields.length + 1];
+        for (int i = 0; i < afields.length; i++) {
+            firstFields[i + 1] = firstFields[i] + aggregates.get(i).aggregateFields().length;
+            firstValues[i + 1] = firstValues[i] + aggregates.get(i).aggregateTypes().length;
+        }
+    }
+
+    /// the running aggregates of a are only ever handed back to a, so they can be held as Objects
+    @SuppressWarnings("unchecked")
+    private static HashAggregator<Object> ofObjects(HashAggregator<?> a) {
+        return (HashAggregator<Object>) a;
+    }
+
+    protected Object[] newGroup() {
+        Object[] group = new Object[aggregates.size()];
+        for (int i = 0; i < group.length; i++)
+            group[i] = aggregates.get(i).newGroup();
+        return group;
+    }
+
+    protected void merge(Object[] group, Tuple tup) {
+        for (int i = 0; i < group.length; i++)
+            aggregates.get(i).merge(group[i], tup);
+    }
+
+    protected void merge(Object[] group, TupleBatch batch, int r) {
+        for (int i = 0; i < group.length; i++)
+            aggregates.get(i).merge(group[i], batch, r);
+    }
+
+    protected int[] aggregateFields() {
+        int[] fields = new int[firstFields[aggregates.size()]];
+        for (int i = 0; i < aggregates.size(); i++) {
+            int[] f = aggregates.get(i).aggregateFields();
+            System.arraycopy(f, 0, fields, firstFields[i], f.length);
+        }
+        return fields;
+    }
+
+    protected MultiAggregator newAggregator(int[] gbfields, int[] afields, int level) {
+        int[] firsts = new int[aggregates.size()];
+        for (int i = 0; i < firsts.length; i++)
+            firsts[i] = afields[firstFields[i]];
+        return new MultiAggregator(gbfields, gbfieldtypes, firsts, afieldtypes, whats, level);
+    }
+
+    protected Type[] aggregateTypes() {
+        Type[] types = new Type[firstValues[aggregates.size()]];
+        for (int i = 0; i < aggregates.size(); i++) {
+            Type[] t = aggregates.get(i).aggregateTypes();
+            System.arraycopy(t, 0, types, firstValues[i], t.length);
+        }
+        return types;
+    }
+
+    protected void setResults(Object[] group, Tuple out, int first) {
+        for (int i = 0; i < group.length; i++)
+            aggregates.get(i).setResults(group[i], out, first + firstValues[i]);
+    }
+}
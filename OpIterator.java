@@ -34,6 +34,29 @@ public interface OpIterator extends Serializable {
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next rows from the operator as a batch of column vectors.
+   * The batch stays valid until the next call on this iterator, and the
+   * caller may modify it (e.g. drop rows from it). An iterator must be
+   * read either through next() or through nextBatch() between open and
+   * close, not both.
+   * <p>
+   * This default reads up to {@link TupleBatch#DEFAULT_SIZE} tuples through
+   * hasNext/next, so operators that are not written for batches can feed
+   * operators that are.
+   *
+   * @return a batch of at least one row, or null if there are no more.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    if (!hasNext())
+      return null;
+    TupleBatch batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE, true);
+    while (!batch.isFull() && hasNext())
+      batch.add(next());
+    return batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -32,6 +32,9 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof ExchangeConsumer) {
+            return updateExchangeCardinality((ExchangeConsumer) o,
+                    tableAliasToId, tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -42,16 +45,48 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
+            if (o instanceof Limit)
+                childC = limitCardinality(childC, ((Limit) o).getLimit(), ((Limit) o).getOffset());
+            else if (o instanceof TopN)
+                childC = limitCardinality(childC, ((TopN) o).getLimit(), ((TopN) o).getOffset());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
     }
 
+    /// the rows of all the inputs of an exchange, split among the consumers of a HashRepartition
+    private static boolean updateExchangeCardinality(ExchangeConsumer e,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        int card = 0;
+        boolean hasJoinPK = false;
+        for (OpIterator child : e.getChildren()) {
+            if (child instanceof Operator) {
+                hasJoinPK |= updateOperatorCardinality((Operator) child,
+                        tableAliasToId, tableStats);
+                card += ((Operator) child).getEstimatedCardinality();
+            } else if (child instanceof SeqScan) {
+                card += scanCardinality((SeqScan) child, tableStats);
+            }
+        }
+        if (e instanceof HashRepartition)
+            card /= ((HashRepartition) e).getPartitions();
+        e.setEstimatedCardinality(card);
+        return hasJoinPK;
+    }
+
+    /// the rows of a scan's table, or its share of them for a scan that shares the table's pages
+    private static int scanCardinality(SeqScan s, Map<String, TableStats> tableStats) {
+        return tableStats.get(s.getTableName()).estimateTableCardinality(1.0) / s.getScans();
+    }
+
+    private static int limitCardinality(int childCard, int limit, int offset) {
+        return Math.max(0, Math.min(childCard - offset, limit));
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -78,9 +113,7 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality((SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -121,8 +154,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -133,8 +165,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -178,8 +209,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,8 +220,7 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -220,28 +249,31 @@ public class OperatorCardinality {
         }
 
         if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        // the number of groups is at most the product of the number of
+        // distinct values of every group by field
+        double groups = 1.0;
+        for (int gfield : a.groupFields()) {
+            String[] tmp = child.getTupleDesc().getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
 
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups = Math.min(childCard, groups / groupFieldAvgSelectivity);
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) groups);
         return hasJoinPK;
     }
 }
@@ -3,17 +3,18 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The child is
+ * sorted by an {@link ExternalSort}, so inputs larger than memory are sorted
+ * in runs on disk and merged as the tuples are fetched.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
+    private transient ExternalSort sort;
     private boolean asc;
 
     /**
@@ -55,22 +56,20 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort = new ExternalSort(child, new TupleComparator(orderByField, asc));
+        sort.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sort != null)
+            sort.close();
+        sort = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,8 +81,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sort != null && sort.hasNext()) {
+            return sort.next();
         } else
             return null;
     }
@@ -99,25 +98,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -82,9 +82,10 @@ class PageInfo {
 
         nReader++;
         //canReclaim = false;
-        lock.unlock();
+        /// under the lock: threads of one transaction may share a page (see SeqScan#split)
         Integer cnt = shareLockSet.get(tid);
         shareLockSet.put(tid, cnt == null ? 1 : cnt + 1);
+        lock.unlock();
     }
 
     void releaseShareLock(TransactionId tid)
@@ -95,11 +96,12 @@ class PageInfo {
         Integer cnt = shareLockSet.get(tid);
         if (cnt == null)
             return;
-        if (cnt == 0) {
-            System.out.println("cannot unlock a lock u don't hold it!");
-            cnt /= 0;
-            //System.exit(-1);
-        }
+        if (cnt == 0)
+            throw new IllegalStateException("no share lock of " + tid + " on " + pid);
+        /// cnt counts acquisitions by all the threads of tid, and all of them are
+        /// dropped at once: share locks are released only when tid completes, once
+        /// its threads are done (releasePage gives back pages fetched READ_WRITE,
+        /// and plans writing pages run on one thread)
         nReader -= cnt;
         shareLockSet.remove(tid);
         //shareLockSet.put(tid, cnt-1);
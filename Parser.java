@@ -3,7 +3,10 @@ package simpledb;
 import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +15,16 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /// LIMIT n [OFFSET m] at the end of a statement, which Zql cannot parse
+    private static final Pattern LIMIT = Pattern.compile(
+            "(?is)^(.*?)\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$");
+
+    /// the LIMIT and OFFSET taken off the statement being parsed; limit is -1 if there is none
+    private int limit = -1, offset = 0;
+    /// whether the plans of the statement being parsed may run on several threads: not under
+    /// an INSERT, DELETE or UPDATE, whose operator changes pages on the caller's thread
+    private boolean parallel = true;
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -98,7 +111,7 @@ public class Parser {
                         LogicalPlan sublp = parseQueryLogicalPlan(tid,
                                 (ZQuery) ops.elementAt(1));
                         OpIterator pp = sublp.physicalPlan(tid,
-                                TableStats.getStatsMap(), explain);
+                                TableStats.getStatsMap(), explain, parallel);
                         lp.addJoin(tab1field, pp, op);
                     } catch (IOException e) {
                         throw new simpledb.ParsingException("Invalid subquery "
@@ -182,23 +195,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +216,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +226,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +247,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
@@ -270,6 +276,52 @@ public class Parser {
         return lp;
     }
 
+    /**
+     * Take a LIMIT clause off the end of statement s, to be added to its
+     * logical plan by {@link #addLimit}.
+     *
+     * @return s without the clause
+     */
+    private String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT.matcher(s);
+        if (!m.matches())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(2));
+            if (m.group(3) != null)
+                offset = Integer.parseInt(m.group(3));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT or OFFSET out of range");
+        }
+        return m.group(1) + m.group(4);
+    }
+
+    private InputStream stripLimit(InputStream is) throws IOException, simpledb.ParsingException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            bytes.write(buf, 0, n);
+        return new ByteArrayInputStream(stripLimit(bytes.toString("UTF-8")).getBytes("UTF-8"));
+    }
+
+    /// add the LIMIT taken off the statement, if any, to the plan of its query
+    private void addLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0)
+            lp.addLimit(limit, offset);
+        limit = -1;
+    }
+
+    /// fail a statement that cannot take the LIMIT taken off it, rather than ignore the LIMIT
+    private void rejectLimit(String statement) throws simpledb.ParsingException {
+        if (limit >= 0) {
+            limit = -1;
+            throw new simpledb.ParsingException("LIMIT is not supported in " + statement);
+        }
+    }
+
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
@@ -277,8 +329,10 @@ public class Parser {
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
+        parallel = true;
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        addLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -323,6 +377,7 @@ public class Parser {
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        parallel = false;
         int tableId;
         try {
             tableId = Database.getCatalog().getTableId(s.getTable()); // will
@@ -343,6 +398,7 @@ public class Parser {
         OpIterator newTups;
 
         if (s.getValues() != null) {
+            rejectLimit("INSERT ... VALUES");
             @SuppressWarnings("unchecked")
             Vector<ZExp> values = (Vector<ZExp>) s.getValues();
             if (td.numFields() != values.size()) {
@@ -355,28 +411,7 @@ public class Parser {
                 if (!(e instanceof ZConstant))
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
-                ZConstant zc = (ZConstant) e;
-                if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is not an integer, expected a string.");
-                    }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
-                } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is a string, expected an integer.");
-                    }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
-                } else {
-                    throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
-                }
+                t.setField(i, getConstantField((ZConstant) e, td.getFieldType(i)));
 
                 i++;
             }
@@ -387,7 +422,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
-            newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+            addLimit(lp);
+            newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain, false);
         }
         Query insertQ = new Query(tId);
         insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
@@ -397,6 +433,8 @@ public class Parser {
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        rejectLimit("DELETE");
+        parallel = false;
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -420,13 +458,97 @@ public class Parser {
         lp.addProjectField("null.*", null);
 
         OpIterator op = new Delete(tid, lp.physicalPlan(tid,
-                TableStats.getStatsMap(), false));
+                TableStats.getStatsMap(), false, false));
         sdbq.setPhysicalPlan(op);
 
         return sdbq;
 
     }
 
+    /**
+     * @return the value of constant zc as a field of the given type
+     * @throws simpledb.ParsingException if zc is not of that type
+     */
+    private Field getConstantField(ZConstant zc, Type type)
+            throws simpledb.ParsingException {
+        if (zc.getType() == ZConstant.NUMBER) {
+            if (type != Type.INT_TYPE) {
+                throw new simpledb.ParsingException("Value "
+                        + zc.getValue()
+                        + " is not an integer, expected a string.");
+            }
+            return new IntField(new Integer(zc.getValue()));
+        } else if (zc.getType() == ZConstant.STRING) {
+            if (type != Type.STRING_TYPE) {
+                throw new simpledb.ParsingException("Value "
+                        + zc.getValue()
+                        + " is a string, expected an integer.");
+            }
+            return new StringField(zc.getValue(), Type.STRING_LEN);
+        } else {
+            throw new simpledb.ParsingException(
+                    "Only string or int fields are supported.");
+        }
+    }
+
+    public Query handleUpdateStatement(ZUpdate s, TransactionId tid)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        rejectLimit("UPDATE");
+        parallel = false;
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(s.getTable()); // will fall
+                                                                 // through if
+                                                                 // table
+                                                                 // doesn't
+                                                                 // exist
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + s.getTable());
+        }
+        String name = s.getTable();
+        TupleDesc td = Database.getCatalog().getTupleDesc(id);
+
+        @SuppressWarnings("unchecked")
+        Hashtable<String, ZExp> set = (Hashtable<String, ZExp>) s.getSet();
+        int[] fields = new int[set.size()];
+        Field[] values = new Field[set.size()];
+        int i = 0;
+        for (Map.Entry<String, ZExp> e : set.entrySet()) {
+            String col = e.getKey();
+            col = col.substring(col.lastIndexOf('.') + 1);
+            try {
+                fields[i] = td.fieldNameToIndex(col);
+            } catch (NoSuchElementException ex) {
+                throw new simpledb.ParsingException("Unknown field " + col
+                        + " in SET clause");
+            }
+            if (!(e.getValue() instanceof ZConstant))
+                throw new simpledb.ParsingException(
+                        "Complex expressions not allowed in UPDATE statements.");
+            values[i] = getConstantField((ZConstant) e.getValue(),
+                    td.getFieldType(fields[i]));
+            i++;
+        }
+
+        Query sdbq = new Query(tid);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.setQuery(s.toString());
+
+        lp.addScan(id, name);
+        if (s.getWhere() != null)
+            processExpression(tid, (ZExpression) s.getWhere(), lp);
+        lp.addProjectField("null.*", null);
+
+        OpIterator op = new Update(tid, lp.physicalPlan(tid,
+                TableStats.getStatsMap(), false, false), fields, values);
+        sdbq.setPhysicalPlan(op);
+
+        return sdbq;
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -465,12 +587,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes(StandardCharsets.UTF_8));
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                addLimit(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +626,7 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ZqlParser p = new ZqlParser(stripLimit(is));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -523,6 +646,9 @@ public class Parser {
                     else if (s instanceof ZDelete)
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
+                    else if (s instanceof ZUpdate)
+                        query = handleUpdateStatement((ZUpdate) s,
+                                curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
                                 curtrans.getId());
@@ -530,7 +656,7 @@ public class Parser {
                         System.out
                                 .println("Can't parse "
                                         + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                                        + "\n -- parser only handles SQL transactions, insert, delete, update, and select statements");
                     }
                     if (query != null)
                         query.execute();
@@ -581,7 +707,8 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "update", "set", "limit",
+            "offset" };
 
     public static void main(String argv[]) throws IOException {
 
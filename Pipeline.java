@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of Filters and Projects, run push-based over the operator under
+ * it, its source: every batch of the source goes through the whole chain
+ * in one loop, instead of being pulled through each operator of the chain
+ * in turn, and is then pushed to a {@link Consumer}.
+ * <p>
+ * The chain is fused when the pipeline is created: the predicates of all
+ * the Filters, renumbered to the columns of the source, are evaluated as
+ * one {@link CompiledPredicate} over the source's batch, and the Projects
+ * are composed into a single projection sharing the source's column
+ * vectors. No tuple is created and no value copied on the way.
+ * <p>
+ * Any other operator is the source, read through
+ * {@link OpIterator#nextBatch}, which falls back to hasNext/next for
+ * operators not written for batches. The operators of the chain are opened
+ * and closed as usual, by the caller; the pipeline only reads the source.
+ */
+public class Pipeline {
+
+    /**
+     * Takes the rows a pipeline pushes.
+     */
+    public interface Consumer {
+        /**
+         * Take the rows of batch, which has at least one. The batch belongs
+         * to the pipeline and is reused once this returns.
+         */
+        void consume(TupleBatch batch) throws DbException, TransactionAbortedException;
+    }
+
+    private final OpIterator source;
+    private final CompiledPredicate predicate;  /// the Filters' predicates, or null if there are none
+    private final TupleDesc td;
+    private final int[] columns;                /// the source columns of each output column, or null for all of them
+    private transient TupleBatch out;
+
+    /**
+     * Create the pipeline of the chain of Filters and Projects at the top of
+     * op, which must be open whenever the pipeline is pushed.
+     */
+    public Pipeline(OpIterator op) {
+        td = op.getTupleDesc();
+        ArrayList<OpIterator> chain = new ArrayList<OpIterator>();
+        while (op instanceof Filter || op instanceof Project) {
+            chain.add(op);
+            op = ((Operator) op).getChildren()[0];
+        }
+        source = op;
+
+        /// from the bottom up, numbering fields as the source does
+        List<Predicate> preds = new ArrayList<Predicate>();
+        int[] cols = null;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            if (chain.get(i) instanceof Filter) {
+                Predicate p = ((Filter) chain.get(i)).getPredicate();
+                preds.add(cols == null ? p : new Predicate(cols[p.getField()], p.getOp(), p.getOperand()));
+            } else {
+                int[] fields = ((Project) chain.get(i)).getColumns();
+                int[] composed = new int[fields.length];
+                for (int c = 0; c < fields.length; c++)
+                    composed[c] = cols == null ? fields[c] : cols[fields[c]];
+                cols = composed;
+            }
+        }
+        predicate = preds.isEmpty() ? null : new CompiledPredicate(preds, source.getTupleDesc());
+        columns = cols;
+    }
+
+    /**
+     * @return the operator the pipeline reads from
+     */
+    public OpIterator getSource() {
+        return source;
+    }
+
+    /**
+     * Run the next batch of the source through the pipeline, and push the
+     * rows left, if any, to consumer.
+     *
+     * @return false if the source has no more rows
+     */
+    public boolean pushNext(Consumer consumer) throws DbException, TransactionAbortedException {
+        TupleBatch batch = source.nextBatch();
+        if (batch == null)
+            return false;
+        if (predicate != null)
+            predicate.filter(batch);
+        if (batch.size() == 0)
+            return true;
+        if (columns != null) {
+            if (out == null)
+                out = new TupleBatch(td, batch.capacity());
+            out.project(batch, columns);
+            batch = out;
+        }
+        consumer.consume(batch);
+        return true;
+    }
+
+    /**
+     * Push every remaining row of the source that passes the pipeline to
+     * consumer.
+     */
+    public void pushAll(Consumer consumer) throws DbException, TransactionAbortedException {
+        while (pushNext(consumer))
+            ;
+    }
+}
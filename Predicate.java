@@ -102,9 +102,33 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        if (operand instanceof IntField)    /// compare unboxed
+            return IntField.compare(t.getInt(field), op, ((IntField) operand).getValue());
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Drops the rows of batch b that do not satisfy this predicate, like
+     * {@link #filter(Tuple)} applied to each of them.
+     */
+    public void filter(TupleBatch b) {
+        int n = b.size();
+        int[] sel = b.selection();
+        int k = 0;
+        int[] col = b.getInts(field);
+        if (col != null && operand instanceof IntField) {
+            long[] bitmap = b.bitmap();
+            IntColumnFilter.select(col, n, op, ((IntField) operand).getValue(), bitmap);
+            k = IntColumnFilter.toSelection(bitmap, n, sel);
+        } else {
+            for (int r = 0; r < n; r++) {
+                if (b.getField(r, field).compare(op, operand))
+                    sel[k++] = r;
+            }
+        }
+        b.keep(sel, k);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
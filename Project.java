@@ -10,7 +10,7 @@ public class Project extends Operator {
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Integer> outFieldIds;
+    private int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -31,16 +31,25 @@ public class Project extends Operator {
     public Project(ArrayList<Integer> fieldList, Type[] types,
             OpIterator child) {
         this.child = child;
-        outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
+        outFields = new int[fieldList.size()];
         for (int i = 0; i < fieldAr.length; i++) {
-            fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+            outFields[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(outFields[i]);
         }
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the indices of the child's fields this projection returns, in
+     *         order.
+     */
+    public int[] getColumns() {
+        return outFields;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -72,14 +81,30 @@ public class Project extends Operator {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            for (int i = 0; i < outFields.length; i++) {
+                newTuple.copyField(i, t, outFields[i]);
             }
             return newTuple;
         }
         return null;
     }
 
+    transient private TupleBatch batch;
+
+    /**
+     * Projects the child's batches by pointing the output columns at the
+     * child's column vectors; no values are copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch in = child.nextBatch();
+        if (in == null)
+            return null;
+        if (batch == null)
+            batch = new TupleBatch(td, in.capacity());
+        batch.project(in, outFields);
+        return batch;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
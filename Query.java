@@ -61,9 +61,19 @@ public class Query implements Serializable {
         return this.op.getTupleDesc();
     }
 
+    /// the plan is run a batch at a time; tuples are handed out of the current batch
+    transient private TupleBatch batch = null;
+    transient private int batchPos = 0;
+
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        while (batch == null || batchPos == batch.size()) {
+            batch = op.nextBatch();
+            batchPos = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -83,12 +93,15 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.getTuple(batchPos++);
     }
 
     /** Close the iterator */
     public void close() throws IOException {
         op.close();
+        batch = null;
         started = false;
     }
 
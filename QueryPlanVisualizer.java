@@ -9,11 +9,16 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "o(top)";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -26,7 +31,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof IndexNestedLoopsJoin
+                || o instanceof BlockNestedLoopsJoin || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -76,6 +82,8 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (s.getScans() > 1)   /// one of several scans sharing the table's pages
+                thisNode.text += "/" + s.getScans();
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -136,18 +144,32 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof IndexNestedLoopsJoin
+                    || plan instanceof BlockNestedLoopsJoin || plan instanceof SortMergeJoin) {
+                String symbol;
+                JoinPredicate jp;
+                if (plan instanceof HashEquiJoin) {
+                    symbol = HASH_JOIN;
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                } else if (plan instanceof IndexNestedLoopsJoin) {
+                    symbol = INDEX_JOIN;
+                    jp = ((IndexNestedLoopsJoin) plan).getJoinPredicate();
+                } else if (plan instanceof BlockNestedLoopsJoin) {
+                    symbol = BLOCK_JOIN;
+                    jp = ((BlockNestedLoopsJoin) plan).getJoinPredicate();
+                } else {
+                    symbol = MERGE_JOIN;
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -156,7 +178,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - symbol.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -170,16 +192,30 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                int[] gfields = a.groupFields();
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                StringBuilder aggs = new StringBuilder();
+                for (int i = 0; i < afields.length; i++) {
+                    if (i > 0)
+                        aggs.append(", ");
+                    aggs.append(String.format("%1$s(%2$s)", aops[i],
+                            a.getChildren()[0].getTupleDesc().getFieldName(afields[i])));
+                }
+                if (gfields.length == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    StringBuilder groups = new StringBuilder();
+                    for (int i = 0; i < gfields.length; i++) {
+                        if (i > 0)
+                            groups.append(",");
+                        groups.append(td.getFieldName(i));
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -217,22 +253,40 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+            } else if (plan instanceof OrderBy || plan instanceof TopN || plan instanceof Limit) {
+                String symbol;
+                if (plan instanceof OrderBy) {
+                    OrderBy o = (OrderBy) plan;
+                    symbol = ORDERBY;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),card:%3$d",
+                            ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()),o.getEstimatedCardinality());
+                } else if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    symbol = TOPN;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s,%3$d+%4$d),card:%5$d",
+                            TOPN,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()), o.getOffset(), o.getLimit(),
+                            o.getEstimatedCardinality());
+                } else {
+                    Limit o = (Limit) plan;
+                    symbol = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d+%3$d),card:%4$d",
+                            LIMIT, o.getOffset(), o.getLimit(), o.getEstimatedCardinality());
+                }
                 int upBarShift = parentUpperBarStartShift;
-                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = ORDERBY.length() / 2;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
                 thisNode.upBarPosition = child.upBarPosition;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - ORDERBY.length() / 2;
+                        - symbol.length() / 2;
                 thisNode.width = Math.max(child.width,
                         thisNode.textStartPosition + thisNode.text.length()
                                 - currentStartPosition);
@@ -1,12 +1,22 @@
 package simpledb;
 
-import java.awt.image.DataBuffer;
 import java.util.*;
 
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be limited to some of the table's columns. Over a ColumnFile
+ * only those columns are read from disk; over other files the tuples are
+ * projected as they are returned.
+ * <p>
+ * Predicates pushed into a scan let it skip pages that cannot hold a matching
+ * tuple (see ZoneMap). The scan may still return tuples that do not match,
+ * so a Filter above it is still needed.
+ * <p>
+ * A scan of a HeapFile may be split into several scans that share the
+ * file's pages, to be run on several threads (see {@link #split(int)}).
  */
 public class SeqScan implements OpIterator {
 
@@ -14,8 +24,13 @@ public class SeqScan implements OpIterator {
 
     int tableId;
     String tableAlias;
+    int[] columns;      /// null: all columns
+    ArrayList<Predicate> predicates = new ArrayList<>();
     TransactionId transactionId;
     DbFileIterator tupleIterator;
+    TupleDesc projectedTd;  /// set when tuples have to be projected here
+    transient TupleBatch batch;
+    Morsels morsels;    /// null unless this scan shares its table's pages with others
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -41,6 +56,45 @@ public class SeqScan implements OpIterator {
         this.tupleIterator = null;
     }
 
+    /**
+     * Creates a sequential scan over the given columns of the specified
+     * table.
+     *
+     * @param columns
+     *            the indices of the table's columns to return, in order, or
+     *            null for all of them.
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns;
+    }
+
+    /**
+     * Push a predicate into this scan so it can skip pages that cannot
+     * satisfy it.
+     *
+     * @param p a predicate over this scan's output fields
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /**
+     * @return the indices of the table's columns this scan returns, or null
+     *         if it returns all of them.
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the id of the table this operator scans.
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -74,6 +128,45 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.columns = null;
+        this.predicates.clear();
+    }
+
+    /**
+     * Split this scan into n scans that share the table's pages among them,
+     * handing them out in morsels of consecutive pages as each scan gets
+     * through its last one. Run together, say on the threads of an
+     * {@link Exchange}, the scans return the tuples this scan would; each
+     * of them returns some of them. They run as part of this scan's
+     * transaction, and take its page locks as they read the pages.
+     * <p>
+     * The scans return this scan's columns and keep its pushed predicates.
+     * Every one of them must be opened, and closed, once per run: the first
+     * scan opened again after all were opened starts a new run over all the
+     * pages. A scan that shares its pages cannot be rewound on its own.
+     *
+     * @param n the number of scans to split this one into
+     * @throws DbException if the table is not a HeapFile
+     */
+    public SeqScan[] split(int n) throws DbException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new DbException("only a scan of a HeapFile can be split");
+        Morsels shared = new Morsels(n);
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            scans[i] = new SeqScan(transactionId, tableId, tableAlias, columns);
+            scans[i].predicates.addAll(predicates);
+            scans[i].morsels = shared;
+        }
+        return scans;
+    }
+
+    /**
+     * @return the number of scans sharing this scan's pages, 1 unless it
+     *         was split off another scan.
+     */
+    public int getScans() {
+        return morsels == null ? 1 : morsels.getScans();
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -81,8 +174,35 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        tupleIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(transactionId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (morsels != null) {
+            morsels.open();
+            tupleIterator = ((HeapFile) file).iterator(transactionId, filePredicates(), morsels);
+            projectedTd = columns != null ? getTupleDesc() : null;
+        } else if (columns != null && file instanceof ColumnFile) {
+            tupleIterator = ((ColumnFile) file).iterator(transactionId, columns);
+            projectedTd = null;
+        } else if (!predicates.isEmpty() && file instanceof HeapFile) {
+            tupleIterator = ((HeapFile) file).iterator(transactionId, filePredicates());
+            projectedTd = columns != null ? getTupleDesc() : null;
+        } else {
+            tupleIterator = file.iterator(transactionId);
+            projectedTd = columns != null ? getTupleDesc() : null;
+        }
         tupleIterator.open();
+        batch = null;
+    }
+
+    /// the pushed predicates over the table's columns, which the file's zone map is kept by; null if none
+    private List<Predicate> filePredicates() {
+        if (predicates.isEmpty())
+            return null;
+        ArrayList<Predicate> preds = new ArrayList<>();
+        for (Predicate p : predicates) {
+            int field = columns == null ? p.getField() : columns[p.getField()];
+            preds.add(new Predicate(field, p.getOp(), p.getOperand()));
+        }
+        return preds;
     }
 
     /**
@@ -96,7 +216,19 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        return Database.getCatalog().getTupleDesc(tableId);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        int n = columns == null ? td.numFields() : columns.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        int[] maxLens = td.isVariableLength() ? new int[n] : null;
+        for (int i = 0; i < n; i++) {
+            int c = columns == null ? i : columns[i];
+            types[i] = td.getFieldType(c);
+            names[i] = tableAlias + "." + (td.getFieldNames() == null ? null : td.getFieldName(c));
+            if (maxLens != null)
+                maxLens[i] = td.getMaxLen(c);
+        }
+        return maxLens == null ? new TupleDesc(types, names) : new TupleDesc(types, names, maxLens);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -111,7 +243,29 @@ public class SeqScan implements OpIterator {
         // some code goes here
         if (tupleIterator == null)  /// not yet opened
             return null;
-        return tupleIterator.next();
+        Tuple t = tupleIterator.next();
+        if (projectedTd == null)
+            return t;
+
+        Tuple out = new Tuple(projectedTd);
+        for (int i = 0; i < columns.length; i++)
+            out.copyField(i, t, columns[i]);
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    /**
+     * Reads the next tuples of the table straight into the column vectors
+     * of a batch, projecting them on the way.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (tupleIterator == null)
+            return null;
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE, true);
+        batch.clear();
+        tupleIterator.nextBatch(batch, projectedTd == null ? null : columns);
+        return batch.size() > 0 ? batch : null;
     }
 
     public void close() {
@@ -122,6 +276,8 @@ public class SeqScan implements OpIterator {
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (morsels != null)
+            throw new DbException("a scan sharing its pages with others cannot be rewound on its own");
         tupleIterator.rewind();
     }
 }
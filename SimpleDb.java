@@ -15,6 +15,8 @@ public class SimpleDb {
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
+            int[] maxLens = new int[numOfAttributes];
+            boolean declaresLen = false;
             char fieldSeparator=',';
 
             if (args.length == 3) 
@@ -30,11 +32,18 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
+                        s = s.toLowerCase();
+                        if (s.equals("int")) {
+                            maxLens[index] = Type.INT_TYPE.getLen();
                             ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
+                        } else if (s.equals("string")) {
+                                maxLens[index] = Type.STRING_LEN;
                                 ts[index++]=Type.STRING_TYPE;
-                            else {
+                        } else if (s.matches("string\\(\\d+\\)")) {
+                                maxLens[index] = Integer.parseInt(s.substring(7, s.length() - 1));
+                                ts[index++]=Type.STRING_TYPE;
+                                declaresLen = true;
+                            } else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
@@ -43,12 +52,27 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            TupleDesc td;
+            try {
+                td = declaresLen ? new TupleDesc(ts, null, maxLens) : new TupleDesc(ts, null);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+            BulkLoader.load(sourceTxtFile, targetDatFile, BufferPool.getPageSize(), td, fieldSeparator, false);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("compress")) {
+            // compress a heap file, in place unless a target file is given
+            if (args.length < 2 || args.length > 3) {
+                System.err.println("Unexpected number of arguments to compress ");
+                return;
+            }
+            File sourceDatFile = new File(args[1]);
+            File targetDatFile = args.length == 3 ? new File(args[2]) : sourceDatFile;
+            HeapFileEncoder.compress(sourceDatFile, targetDatFile, BufferPool.getPageSize());
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs ordered on their join fields by reading
+ * them side by side. An input that is not known to be in ascending order
+ * of its join field already ({@link #isSortedOn}) is first sorted with an
+ * {@link ExternalSort}, so large inputs are sorted in runs on disk and
+ * read sequentially.
+ * <p>
+ * For an equality predicate, each group of outer tuples with the same key
+ * is held in memory and joined to the inner tuples with that key. For a
+ * range predicate, the tuples matching a given tuple of one input are a
+ * prefix of the other input, which grows as that tuple's key grows: the
+ * prefix is held in memory and extended from the input as needed, so
+ * neither input is read more than once.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private transient OpIterator in1, in2;      /// the children, sorted on their join fields
+    private transient boolean intKeys;
+    private transient Tuple next1, next2;       /// lookahead, null once an input is done
+    private transient boolean started;
+
+    /// equality: the outer tuples whose key is that of t2, and the next one to join to it
+    private transient ArrayList<Tuple> group;
+    private transient int groupPos;
+    private transient Tuple t2;
+
+    /// range: the prefix of one input, the tuple of the other it is joined to, and the next one
+    private transient ArrayList<Tuple> prefix;
+    private transient Tuple probe;
+    private transient int prefixPos;
+    /// whether the prefix is of child1 (for "<" and "<="), or of child2
+    private transient boolean prefixOfChild1;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, which must not be NOT_EQUALS or LIKE.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS || p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("sort-merge join on " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether it is known that it returns its tuples in ascending
+     *         order of field: it is an ascending OrderBy or TopN on field,
+     *         or a scan of a B+ tree keyed on field, possibly under Filters
+     *         or another SortMergeJoin.
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof TopN)
+            return ((TopN) it).isASC() && ((TopN) it).getOrderByField() == field;
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            int n1 = j.child1.getTupleDesc().numFields();
+            return j.pred.getOperator() == Predicate.Op.EQUALS
+                    && (field == j.pred.getField1() || field == n1 + j.pred.getField2());
+        }
+        if (it instanceof BTreeScan) {
+            int table = Database.getCatalog().getTableId(((BTreeScan) it).getTableName());
+            return ((BTreeFile) Database.getCatalog().getDatabaseFile(table)).keyField() == field;
+        }
+        if (it instanceof SeqScan) {
+            SeqScan s = (SeqScan) it;
+            DbFile f = Database.getCatalog().getDatabaseFile(s.getTableId());
+            int column = s.getColumns() == null ? field : s.getColumns()[field];
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == column;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        in1 = isSortedOn(child1, pred.getField1()) ? child1
+                : new ExternalSort(child1, new TupleComparator(pred.getField1(), true));
+        in2 = isSortedOn(child2, pred.getField2()) ? child2
+                : new ExternalSort(child2, new TupleComparator(pred.getField2(), true));
+        intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        Predicate.Op op = pred.getOperator();
+        prefixOfChild1 = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+        in1.open();
+        in2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        started = false;
+        next1 = next2 = t2 = probe = null;
+        group = new ArrayList<Tuple>();
+        prefix = new ArrayList<Tuple>();
+        groupPos = prefixPos = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (in1 != null) {
+            in1.close();
+            in2.close();
+        }
+        in1 = in2 = null;
+        group = prefix = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        in1.rewind();
+        in2.rewind();
+        reset();
+    }
+
+    /// the key of child1 tuple a compared to the key of child2 tuple b
+    private int compareKeys(Tuple a, Tuple b) {
+        if (intKeys)
+            return Integer.compare(a.getInt(pred.getField1()), b.getInt(pred.getField2()));
+        Field f1 = a.getField(pred.getField1()), f2 = b.getField(pred.getField2());
+        if (f1.compare(Predicate.Op.EQUALS, f2))
+            return 0;
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    private Tuple advance1() throws DbException, TransactionAbortedException {
+        Tuple t = next1;
+        next1 = in1.hasNext() ? in1.next() : null;
+        return t;
+    }
+
+    private Tuple advance2() throws DbException, TransactionAbortedException {
+        Tuple t = next2;
+        next2 = in2.hasNext() ? in2.next() : null;
+        return t;
+    }
+
+    /**
+     * Merges the sorted inputs.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!started) {
+            advance1();
+            advance2();
+            started = true;
+        }
+        return pred.getOperator() == Predicate.Op.EQUALS ? fetchEqual() : fetchRange();
+    }
+
+    private Tuple fetchEqual() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null) {
+                if (groupPos < group.size())
+                    return Tuple.merge(comboTD, group.get(groupPos++), t2);
+                /// the next inner tuple may have the same key
+                t2 = null;
+                if (next2 != null && compareKeys(group.get(0), next2) == 0) {
+                    t2 = advance2();
+                    groupPos = 0;
+                }
+                continue;
+            }
+            if (next1 == null || next2 == null)
+                return null;
+            int c = compareKeys(next1, next2);
+            if (c < 0)
+                advance1();
+            else if (c > 0)
+                advance2();
+            else {
+                group.clear();
+                group.add(advance1());
+                while (next1 != null && compareKeys(next1, next2) == 0)
+                    group.add(advance1());
+                t2 = advance2();
+                groupPos = 0;
+            }
+        }
+    }
+
+    /**
+     * For "<" and "<=", the child1 tuples matching a child2 tuple are those
+     * with keys below (or up to) its key: a prefix of child1 that grows
+     * along child2. For ">" and ">=", it is the other way round.
+     */
+    private Tuple fetchRange() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null && prefixPos < prefix.size()) {
+                Tuple t = prefix.get(prefixPos++);
+                return prefixOfChild1 ? Tuple.merge(comboTD, t, probe) : Tuple.merge(comboTD, probe, t);
+            }
+            probe = prefixOfChild1 ? advance2() : advance1();
+            if (probe == null)
+                return null;
+            prefixPos = 0;
+            /// extend the prefix with the tuples that match probe
+            if (prefixOfChild1) {
+                while (next1 != null && pred.filter(next1, probe))
+                    prefix.add(advance1());
+            } else {
+                while (next2 != null && pred.filter(probe, next2))
+                    prefix.add(advance2());
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by an operator whose
+ * input does not fit in memory and read back later, as many times as it
+ * needs. Fields are written one after the other in the variable-length
+ * record format (see {@link Type#serialize}), without pages or RecordIds.
+ * <p>
+ * All tuples are added before the file is first read. The file is deleted
+ * when the SpillFile is closed, or else when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Create an empty spill file for tuples of schema td.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb-spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added so far. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append t, a tuple of this file's schema.
+     */
+    public void add(Tuple t) throws DbException {
+        add(t, null);
+    }
+
+    /**
+     * Append fields cols of t, which are of this file's schema, or all of
+     * them if cols is null.
+     */
+    public void add(Tuple t, int[] cols) throws DbException {
+        try {
+            for (int c = 0; c < td.numFields(); c++) {
+                int f = cols == null ? c : cols[c];
+                if (td.getFieldType(c) == Type.INT_TYPE)
+                    out.writeInt(t.getInt(f));
+                else
+                    td.getFieldType(c).serialize(out, t.getField(f), td.getMaxLen(c));
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Append row r of batch, whose schema is this file's.
+     */
+    public void add(TupleBatch batch, int r) throws DbException {
+        add(batch, r, null);
+    }
+
+    /**
+     * Append columns cols of row r of batch, which are of this file's
+     * schema, or all of them if cols is null.
+     */
+    public void add(TupleBatch batch, int r, int[] cols) throws DbException {
+        try {
+            for (int c = 0; c < td.numFields(); c++) {
+                int f = cols == null ? c : cols[c];
+                int[] ints = batch.getInts(f);
+                if (ints != null)
+                    out.writeInt(ints[r]);
+                else
+                    td.getFieldType(c).serialize(out, batch.getFields(f)[r], td.getMaxLen(c));
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return an iterator over the tuples added, in the order they were
+     *         added. No tuples may be added once it is opened.
+     */
+    public OpIterator iterator() {
+        return new SpillIterator();
+    }
+
+    /**
+     * Delete the file.
+     */
+    public void close() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class SpillIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private transient TupleBatch batch;
+        private int read;
+        private Tuple next;
+
+        public void open() throws DbException {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            read = 0;
+            next = null;
+        }
+
+        private Tuple readNext() throws DbException {
+            if (read == size)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int c = 0; c < td.numFields(); c++) {
+                    if (td.getFieldType(c) == Type.INT_TYPE)
+                        t.setInt(c, in.readInt());
+                    else
+                        t.setField(c, td.getFieldType(c).parse(in, td.getMaxLen(c)));
+                }
+            } catch (IOException | java.text.ParseException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (in == null)
+                throw new IllegalStateException("spill file iterator not open");
+            if (next == null)
+                next = readNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        /**
+         * Reads the fields straight into the column vectors of a batch.
+         */
+        public TupleBatch nextBatch() throws DbException {
+            if (!hasNext())
+                return null;
+            if (batch == null)
+                batch = new TupleBatch(td, TupleBatch.DEFAULT_SIZE, false);
+            batch.clear();
+            batch.add(next);
+            next = null;
+            int r = 1;
+            try {
+                for (; r < batch.capacity() && read < size; r++, read++) {
+                    for (int c = 0; c < td.numFields(); c++) {
+                        int[] ints = batch.getInts(c);
+                        if (ints != null)
+                            ints[r] = in.readInt();
+                        else
+                            batch.getFields(c)[r] = td.getFieldType(c).parse(in, td.getMaxLen(c));
+                    }
+                }
+            } catch (IOException | java.text.ParseException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            batch.setSize(r);
+            return batch;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            in = null;
+            next = null;
+        }
+    }
+}
@@ -1,16 +1,12 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.TreeMap;
-
 import static simpledb.Aggregator.Op.COUNT;
 import static simpledb.Aggregator.Op.SUM_COUNT;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
  */
-public class StringAggregator implements Aggregator {
+public class StringAggregator extends HashAggregator<StringAggregator.StringAggregatorInfo> {
     static class StringAggregatorInfo {
         int cnt;
         String res;
@@ -24,14 +20,8 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    Op what;
-    int afield;
-    int gbfield;
-    Type gbfieldtype;
-    Field dimKey;
-    //Tuple cacheTuple;
-    OpIterator iterator;
-    Map<Field, StringAggregatorInfo> gbOutput;
+    final Op what;
+    final int afield;
 
     /**
      * Aggregate constructor
@@ -43,37 +33,56 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
+        this(groupFields(gbfield), groupFieldTypes(gbfield, gbfieldtype), afield, what, 0);
+    }
+
+    /**
+     * Aggregate constructor, grouping on several fields.
+     * @param gbfields the 0-based indices of the group-by fields in the tuple; empty if there is no grouping
+     * @param gbfieldtypes the types of the group by fields
+     * @see #StringAggregator(int, Type, int, Op)
+     */
+    public StringAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+        this(gbfields, gbfieldtypes, afield, what, 0);
+    }
+
+    private StringAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what, int level) {
+        super(gbfields, gbfieldtypes, level);
         this.afield = afield;
         this.what = what;
+    }
 
-        gbOutput = new TreeMap<>((x, y) -> {
-            if (x.compare(Predicate.Op.LESS_THAN, y)) return -1;
-            if (x.compare(Predicate.Op.EQUALS, y)) return 0;
-            else return 1;
-        });
-        if (gbfield == NO_GROUPING) {
-            dimKey = new StringField("dim", 3);
-            gbOutput.put(dimKey, new StringAggregatorInfo());
-        }
+    protected StringAggregatorInfo newGroup() {
+        return new StringAggregatorInfo();
     }
 
-    /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
-     * @param tup the Tuple containing an aggregate field and a group-by field
-     */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        //cacheTuple = tup;
-        Field key = gbfield == NO_GROUPING ? dimKey : tup.getField(gbfield);
-        StringAggregatorInfo info = gbOutput.get(key);
-        String val = tup.getField(afield).toString();
-        if (info == null) {
-            info = new StringAggregatorInfo(val);
-            gbOutput.put(key, info);
-            return;
-        }
-        evalOperator(info, val, what);
+    protected int[] aggregateFields() {
+        return new int[] { afield };
+    }
+
+    protected StringAggregator newAggregator(int[] gbfields, int[] afields, int level) {
+        return new StringAggregator(gbfields, gbfieldtypes, afields[0], what, level);
+    }
+
+    private Type aggregateType() {
+        return what == SUM_COUNT || what == COUNT ? Type.INT_TYPE : Type.STRING_TYPE;
+    }
+
+    protected Type[] aggregateTypes() {
+        return new Type[] { aggregateType() };
+    }
+
+    protected void setResults(StringAggregatorInfo info, Tuple out, int first) {
+        out.setField(first, aggregateType() == Type.INT_TYPE ?
+                new IntField(info.cnt) : new StringField(info.res, info.res.length()));
+    }
+
+    protected void merge(StringAggregatorInfo info, Tuple tup) {
+        evalOperator(info, ((StringField) tup.getField(afield)).getValue(), what);
+    }
+
+    protected void merge(StringAggregatorInfo info, TupleBatch batch, int r) {
+        evalOperator(info, ((StringField) batch.getFields(afield)[r]).getValue(), what);
     }
 
     private void evalOperator(StringAggregatorInfo info, String val, Op what) {
@@ -93,49 +102,4 @@ public class StringAggregator implements Aggregator {
         }
     }
 
-    /**
-     * Create a OpIterator over group aggregate results.
-     *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
-     *   grouping. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
-     */
-    public OpIterator iterator() {
-        if (iterator != null)
-            return iterator;
-
-        TupleDesc td;
-        Type[] types; //String[] fieldNames;
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        Type aggType = what == SUM_COUNT || what == COUNT ? Type.INT_TYPE : Type.STRING_TYPE;
-        if (gbfield == NO_GROUPING) {
-            //fieldNames = new String[] { cacheTuple.getTupleDesc().getFieldName(gbfield) };
-            types = new Type[] { aggType };
-            td = new TupleDesc(types, null);
-            Tuple tuple = new Tuple(td);
-            StringAggregatorInfo info = gbOutput.get(dimKey);
-            Field field = (aggType == Type.INT_TYPE) ?
-                    new IntField(info.cnt) : new StringField(info.res, info.res.length());
-            tuple.setField(0, field);
-            tuples.add(tuple);
-        } else {
-            //fieldNames = new String[] { cacheTuple.getTupleDesc().getFieldName(gbfield),
-            //        cacheTuple.getTupleDesc().getFieldName(afield)};
-            types = new Type[] { gbfieldtype, aggType };
-            td = new TupleDesc(types, null);
-            for (Map.Entry<Field, StringAggregatorInfo> entry : gbOutput.entrySet()) {
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, entry.getKey());
-                StringAggregatorInfo info = entry.getValue();
-                Field field = (aggType == Type.INT_TYPE) ?
-                        new IntField(info.cnt) : new StringField(info.res, info.res.length());
-                tuple.setField(1, field);
-                tuples.add(tuple);
-            }
-        }
-        iterator = new TupleIterator(td, tuples);
-        return iterator;
-    }
-
 }
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * An open-addressing hash map from String keys to objects, the counterpart
+ * of {@link IntHashMap} for operators that key on STRING columns.
+ * <p>
+ * The hash of every key is kept next to it, so a probe only calls
+ * String.equals on a key whose hash matches. Keys are probed linearly in a
+ * power-of-two table that is doubled when it becomes more than half full.
+ * Entries cannot be removed.
+ */
+public class StringHashMap<V> {
+
+    private String[] keys;
+    private int[] hashes;
+    private Object[] values;    /// null: empty slot
+    private int mask;
+    private int size;
+
+    public StringHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected the number of keys the map should hold before growing.
+     */
+    public StringHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new String[cap];
+        hashes = new int[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(String key, int h) {
+        int i = h & mask;
+        while (values[i] != null && (hashes[i] != h || !keys[i].equals(key)))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * @return the value for key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        return (V) values[slot(key, hash(key))];
+    }
+
+    /**
+     * Map key to value, which must not be null.
+     *
+     * @return the previous value for key, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(String key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("StringHashMap: null value");
+        int h = hash(key);
+        int i = slot(key, h);
+        V old = (V) values[i];
+        keys[i] = key;
+        hashes[i] = h;
+        values[i] = value;
+        if (old == null && ++size * 2 > keys.length)
+            grow();
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pass every key of the map and its value to action, in no particular
+     * order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<String, ? super V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                action.accept(keys[i], (V) values[i]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        hashes = new int[oldHashes.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], oldHashes[j]);
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -104,10 +104,29 @@ public class TableStats {
         //updateStats();
     }
 
+    /**
+     * Create a TableStats object from histograms built elsewhere, e.g. by
+     * BulkLoader while it wrote the table, instead of scanning the table.
+     *
+     * @param histograms an IntHistogram or StringHistogram per column, with
+     *            their aggregated buckets computed
+     * @param ntuples the number of tuples counted by the histograms
+     */
+    TableStats(int tableid, int ioCostPerPage, Object[] histograms, int ntuples) {
+        this.tableId = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.histograms = histograms;
+        this.ntuples = ntuples;
+
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        this.npages = numPages(f);
+        this.version = getVersion(f);
+    }
+
     private void updateStats()
     {
         int nTuples = 0;
-        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
         DbFileIterator iterator = f.iterator(new TransactionId());
 
         Arrays.stream(histograms).filter(o -> o instanceof IntHistogram)
@@ -117,16 +136,14 @@ public class TableStats {
             int i;
             iterator.open();
             while (iterator.hasNext()) {
-                i = 0;
                 Tuple t = iterator.next();
-                for (Field field : t.getFields()) {
-                    if (field.getType() == Type.INT_TYPE) {
-                        int v = ((IntField) field).getValue();
+                for (i = 0; i < histograms.length; i++) {
+                    if (histograms[i] instanceof IntHistogram) {
+                        int v = t.getInt(i);
                         IntHistogram intHistogram = (IntHistogram) histograms[i];
                         intHistogram.updateMax(v);
                         intHistogram.updateMin(v);
                     }
-                    i++;
                 }
             }
 
@@ -136,16 +153,14 @@ public class TableStats {
 
             iterator.rewind();
             while (iterator.hasNext()) {
-                i = 0;
                 Tuple t = iterator.next();
-                for (Field field : t.getFields()) {
-                    if (field.getType() == Type.INT_TYPE) {
-                        int v = ((IntField) field).getValue();
-                        IntHistogram intHistogram = (IntHistogram) histograms[i++];
-                        intHistogram.addValue(v);
+                for (i = 0; i < histograms.length; i++) {
+                    if (histograms[i] instanceof IntHistogram) {
+                        IntHistogram intHistogram = (IntHistogram) histograms[i];
+                        intHistogram.addValue(t.getInt(i));
                     } else {
-                        String v = ((StringField) field).getValue();
-                        StringHistogram stringHistogram = (StringHistogram) histograms[i++];
+                        String v = ((StringField) t.getField(i)).getValue();
+                        StringHistogram stringHistogram = (StringHistogram) histograms[i];
                         stringHistogram.addValue(v);
                     }
                 }
@@ -162,14 +177,30 @@ public class TableStats {
         else ((StringHistogram) o).getHist().calAggBuckets(); });
 
         this.ntuples = nTuples;
-        this.npages = f.numPages();
-        this.version = f.getVersion();
+        this.npages = numPages(f);
+        this.version = getVersion(f);
     }
 
     private boolean needSync()
     {
-        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        return f.getVersion() > version;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return getVersion(f) > version;
+    }
+
+    private static int numPages(DbFile f) {
+        if (f instanceof ColumnFile)
+            return ((ColumnFile) f).numPages();
+        if (f instanceof BTreeFile)
+            return ((BTreeFile) f).numPages();
+        return ((HeapFile) f).numPages();
+    }
+
+    private static int getVersion(DbFile f) {
+        if (f instanceof ColumnFile)
+            return ((ColumnFile) f).getVersion();
+        if (f instanceof BTreeFile)     /// not tracked: stats are not refreshed
+            return 0;
+        return ((HeapFile) f).getVersion();
     }
 
     public Object getHistogram(int i) {
@@ -220,8 +251,13 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        if (op != Predicate.Op.EQUALS)
+            return 1.0;
+        if (needSync())
+            updateStats();
+        if (histograms[field] instanceof IntHistogram)
+            return ((IntHistogram) histograms[field]).avgSelectivity();
+        return ((StringHistogram) histograms[field]).avgSelectivity();
     }
 
     /**
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY with LIMIT n OFFSET m in a single pass over its
+ * child, in place of an OrderBy under a {@link Limit}. It keeps only the
+ * best n + m tuples seen so far, in a heap whose root is the worst of them,
+ * so it needs memory for n + m tuples however large the child is. Most
+ * tuples are rejected by comparing their key to the root's, without making
+ * a Tuple of them.
+ * <p>
+ * It returns the same tuples, in the same order, as OrderBy followed by
+ * Limit: ties keep the order of the child.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private final int offset;
+
+    private transient Tuple[] result;       /// the tuples to return, in order
+    private transient int pos;
+
+    /// a tuple kept, with its position in the child to break ties
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+        final int key;          /// the INT key of t, when the key is an INT
+
+        Entry(Tuple t, long seq, int key) {
+            this.t = t;
+            this.seq = seq;
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param orderByField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return at most
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderByField, boolean asc, int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("negative LIMIT or OFFSET");
+        this.orderByField = orderByField;
+        this.asc = asc;
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * Reads the whole child, keeping the best limit + offset tuples.
+     */
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        int k = (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+        boolean intKey = child.getTupleDesc().getFieldType(orderByField) == Type.INT_TYPE;
+        TupleComparator order = new TupleComparator(orderByField, asc);
+        /// worst first: the root is the tuple to evict
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(k, TupleBatch.DEFAULT_SIZE) + 1, (a, b) -> {
+            int c = intKey ? (asc ? Integer.compare(a.key, b.key) : Integer.compare(b.key, a.key))
+                    : order.compare(a.t, b.t);
+            return c != 0 ? -c : -Long.compare(a.seq, b.seq);
+        });
+        Predicate.Op better = asc ? Predicate.Op.LESS_THAN : Predicate.Op.GREATER_THAN;
+        long seq = 0;
+        TupleBatch batch;
+        while (k > 0 && (batch = child.nextBatch()) != null) {
+            int[] keys = intKey ? batch.getInts(orderByField) : null;
+            for (int r = 0; r < batch.size(); r++, seq++) {
+                if (heap.size() == k) {
+                    /// a later tuple must be strictly better than the root to replace it
+                    Entry worst = heap.peek();
+                    if (intKey ? !IntField.compare(keys[r], better, worst.key)
+                            : !batch.getField(r, orderByField).compare(better, worst.t.getField(orderByField)))
+                        continue;
+                    heap.poll();
+                }
+                heap.add(new Entry(batch.getTuple(r), seq, intKey ? keys[r] : 0));
+            }
+        }
+        result = new Tuple[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--)
+            result[i] = heap.poll().t;
+        pos = offset;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = offset;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return pos < result.length ? result[pos++] : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -8,6 +8,12 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * INT fields are kept unboxed, in an int array read and written through
+ * {@link #getInt} and {@link #setInt}; an IntField is only created when
+ * {@link #getField} asks for one. Pages, predicates, joins and aggregates
+ * use the int accessors, so a scan-filter-join-aggregate pipeline allocates
+ * no Field objects for INT columns.
  */
 public class Tuple implements Serializable {
 
@@ -16,7 +22,10 @@ public class Tuple implements Serializable {
     //Field[] fields;
     private RecordId recordId;
     private TupleDesc tupleDesc;
-    private Field[] fields;
+    private int numFields;
+    private int[] ints;         /// INT values, by field index; null until one is set
+    private long[] intsSet;     /// a bit per field index, set for the INT values in ints
+    private Field[] fields;     /// all other fields; null until one is set
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -27,7 +36,7 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         tupleDesc = td;
-        fields = new Field[td.numFields()];
+        numFields = td.numFields();
     }
 
     /**
@@ -64,26 +73,123 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
+        if (f instanceof IntField && tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+            setInt(i, ((IntField) f).getValue());
+            return;
+        }
+        if (intsSet != null)
+            intsSet[i >>> 6] &= ~(1L << i);
+        if (fields == null) {
+            if (f == null)
+                return;
+            fields = new Field[numFields];
+        }
         fields[i] = f;
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
+     *         INT fields are boxed anew by every call; use {@link #getInt}
+     *         to avoid that.
      *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields == null ? null : fields[i];
+        if (f == null && isIntSet(i))
+            f = new IntField(ints[i]);
+        return f;
+    }
+
+    private boolean isIntSet(int i) {
+        return intsSet != null && (intsSet[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT field,
+     *         without boxing it; 0 if it has not been set.
+     */
+    public int getInt(int i) {
+        return ints == null ? 0 : ints[i];
+    }
+
+    /**
+     * Change the value of the ith field, which must be an INT field, without
+     * boxing it.
+     */
+    public void setInt(int i, int v) {
+        if (ints == null) {
+            ints = new int[numFields];
+            intsSet = new long[(numFields + 63) >>> 6];
+        }
+        ints[i] = v;
+        intsSet[i >>> 6] |= 1L << i;
+        if (fields != null)
+            fields[i] = null;
     }
 
+    /**
+     * Set the ith field of this tuple to the jth field of src, without boxing
+     * it if it is an INT.
+     */
+    public void copyField(int i, Tuple src, int j) {
+        Field f = src.fields == null ? null : src.fields[j];
+        if (f == null && src.isIntSet(j))
+            setInt(i, src.ints[j]);
+        else
+            setField(i, f);
+    }
+
+    /**
+     * @return a tuple of schema td holding the fields of t1 followed by those
+     *         of t2, copied without boxing INTs.
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.numFields, n2 = t2.numFields;
+        if (t1.ints != null || t2.ints != null) {
+            t.ints = new int[n1 + n2];
+            t.intsSet = new long[(n1 + n2 + 63) >>> 6];
+            if (t1.ints != null) {
+                System.arraycopy(t1.ints, 0, t.ints, 0, n1);
+                System.arraycopy(t1.intsSet, 0, t.intsSet, 0, t1.intsSet.length);
+            }
+            if (t2.ints != null) {
+                System.arraycopy(t2.ints, 0, t.ints, n1, n2);
+                for (int j = 0; j < n2; j++) {
+                    if (t2.isIntSet(j))
+                        t.intsSet[(n1 + j) >>> 6] |= 1L << (n1 + j);
+                }
+            }
+        }
+        if (t1.fields != null || t2.fields != null) {
+            t.fields = new Field[n1 + n2];
+            if (t1.fields != null)
+                System.arraycopy(t1.fields, 0, t.fields, 0, n1);
+            if (t2.fields != null)
+                System.arraycopy(t2.fields, 0, t.fields, n1, n2);
+        }
+        return t;
+    }
+
+    /**
+     * @return a new array of all fields of this tuple, INT fields boxed.
+     */
     public Field[] getFields() {
-        return fields;
+        Field[] out = new Field[numFields];
+        for (int i = 0; i < numFields; i++)
+            out[i] = getField(i);
+        return out;
     }
 
     public void setFields(Field[] fields) {
-        this.fields = fields;
+        this.fields = null;
+        ints = null;
+        intsSet = null;
+        for (int i = 0; i < fields.length; i++)
+            setField(i, fields[i]);
     }
 
     /**
@@ -98,7 +204,7 @@ public class Tuple implements Serializable {
         // some code goes here
         //throw new UnsupportedOperationException("Implement this");
         StringBuilder builder = new StringBuilder();
-        for (Field field : fields)
+        for (Field field : getFields())
             builder.append(field.toString()).append('\t');
         builder.deleteCharAt(builder.lastIndexOf("\t"));
         return builder.toString();
@@ -111,7 +217,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return Arrays.stream(fields).iterator();
+        return Arrays.stream(getFields()).iterator();
     }
 
     /**
@@ -125,8 +231,11 @@ public class Tuple implements Serializable {
     public boolean theSameContAs(Tuple other) {
         if (!tupleDesc.equals(other.tupleDesc) || !recordId.equals(other.getRecordId()))
             return false;
-        for (int i = 0; i < fields.length; i++) {
-            if (!fields[i].equals(other.fields[i]))
+        for (int i = 0; i < numFields; i++) {
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                if (getInt(i) != other.getInt(i))
+                    return false;
+            } else if (!getField(i).equals(other.getField(i)))
                 return false;
         }
         return true;
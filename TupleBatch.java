@@ -0,0 +1,307 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of a TupleDesc as column
+ * vectors: an int array for every INT column and a Field array for every
+ * other one, plus optionally the rows' RecordIds, kept as a page and a slot
+ * vector so that scans need not touch the tuples they come from. Batches are what
+ * {@link OpIterator#nextBatch} passes between operators, so that operators
+ * can work on a column at a time in a tight loop instead of going through
+ * hasNext/next once per tuple.
+ * <p>
+ * Filters drop rows by compacting the batch in place ({@link #keep}).
+ * Projections share their input's column vectors ({@link #project}), so a
+ * vector may appear in more than one column or batch.
+ */
+public class TupleBatch {
+
+    /** Number of rows operators put in the batches they return. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private int size;
+    private final int[][] ints;         /// by column; null for non-INT columns
+    private final Field[][] fields;     /// by column; null for INT columns
+    private PageId[] ridPages;          /// RecordIds by row; null if the rows have none
+    private int[] ridSlots;
+    private int[] sel;                  /// scratch selection vector, see selection()
+    private long[] bitmap;              /// scratch selection bitmap, see bitmap()
+
+    /**
+     * Create an empty batch of the given schema and capacity, with a column
+     * vector for each field.
+     *
+     * @param withRecordIds
+     *            whether the batch also keeps the RecordIds of its rows
+     */
+    public TupleBatch(TupleDesc td, int capacity, boolean withRecordIds) {
+        this(td, capacity);
+        for (int c = 0; c < td.numFields(); c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE)
+                ints[c] = new int[capacity];
+            else
+                fields[c] = new Field[capacity];
+        }
+        if (withRecordIds) {
+            ridPages = new PageId[capacity];
+            ridSlots = new int[capacity];
+        }
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch. */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Set the number of rows, after writing them straight into the column
+     * vectors.
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /** Remove all rows; the column vectors are kept for reuse. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the vector of INT column c, whose first {@link #size()} entries
+     *         are the column's values, or null if c is not an INT column.
+     */
+    public int[] getInts(int c) {
+        return ints[c];
+    }
+
+    /**
+     * @return the vector of non-INT column c, or null if c is an INT column.
+     */
+    public Field[] getFields(int c) {
+        return fields[c];
+    }
+
+    /** @return whether the batch keeps the RecordIds of its rows. */
+    public boolean hasRecordIds() {
+        return ridPages != null;
+    }
+
+    /** @return the RecordId of row r, or null if it has none. */
+    public RecordId getRecordId(int r) {
+        return ridPages == null || ridPages[r] == null ? null : new RecordId(ridPages[r], ridSlots[r]);
+    }
+
+    /**
+     * Set the RecordId of row r, in a batch that keeps them.
+     */
+    public void setRecordId(int r, PageId pid, int slot) {
+        ridPages[r] = pid;
+        ridSlots[r] = slot;
+    }
+
+    /** @return the value of column c in row r, boxed if it is an INT. */
+    public Field getField(int r, int c) {
+        return ints[c] != null ? new IntField(ints[c][r]) : fields[c][r];
+    }
+
+    /**
+     * Append t, a tuple of this batch's schema, as a new row.
+     */
+    public void add(Tuple t) {
+        add(t, null);
+    }
+
+    /**
+     * Append fields cols of t as a new row, or all of them if cols is null.
+     */
+    public void add(Tuple t, int[] cols) {
+        int r = size++;
+        for (int c = 0; c < ints.length; c++) {
+            int f = cols == null ? c : cols[c];
+            if (ints[c] != null)
+                ints[c][r] = t.getInt(f);
+            else
+                fields[c][r] = t.getField(f);
+        }
+        if (ridPages != null) {
+            RecordId rid = t.getRecordId();
+            ridPages[r] = rid == null ? null : rid.getPageId();
+            ridSlots[r] = rid == null ? 0 : rid.getTupleNumber();
+        }
+    }
+
+    /**
+     * Append row r of src, a batch of this batch's schema, as a new row.
+     */
+    public void add(TupleBatch src, int r) {
+        int row = size++;
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                ints[c][row] = src.ints[c][r];
+            else
+                fields[c][row] = src.fields[c][r];
+        }
+        if (ridPages != null) {
+            ridPages[row] = src.ridPages == null ? null : src.ridPages[r];
+            ridSlots[row] = src.ridPages == null ? 0 : src.ridSlots[r];
+        }
+    }
+
+    /**
+     * Append a row holding the fields of left followed by those of row r of
+     * right, for a batch whose schema is the concatenation of theirs.
+     */
+    public void addJoined(Tuple left, TupleBatch right, int r) {
+        int row = size++;
+        int n1 = ints.length - right.ints.length;
+        for (int c = 0; c < n1; c++) {
+            if (ints[c] != null)
+                ints[c][row] = left.getInt(c);
+            else
+                fields[c][row] = left.getField(c);
+        }
+        for (int c = n1; c < ints.length; c++) {
+            if (ints[c] != null)
+                ints[c][row] = right.ints[c - n1][r];
+            else
+                fields[c][row] = right.fields[c - n1][r];
+        }
+    }
+
+    /**
+     * @return row r as a new Tuple, with its RecordId if the batch keeps them.
+     */
+    public Tuple getTuple(int r) {
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                t.setInt(c, ints[c][r]);
+            else
+                t.setField(c, fields[c][r]);
+        }
+        t.setRecordId(getRecordId(r));
+        return t;
+    }
+
+    /**
+     * @return a scratch array of at least {@link #size()} entries, in which
+     *         to collect the rows to pass to {@link #keep}.
+     */
+    public int[] selection() {
+        if (sel == null || sel.length < size)
+            sel = new int[Math.max(capacity, size)];
+        return sel;
+    }
+
+    /**
+     * @return a scratch bitmap of at least one bit per row, for
+     *         IntColumnFilter.
+     */
+    public long[] bitmap() {
+        int words = IntColumnFilter.words(Math.max(capacity, size));
+        if (bitmap == null || bitmap.length < words)
+            bitmap = new long[words];
+        return bitmap;
+    }
+
+    /**
+     * Keep only rows sel[0..n), which must be increasing, moving them to the
+     * front of the batch.
+     */
+    public void keep(int[] sel, int n) {
+        if (n == size)
+            return;
+        /// a vector shared by several columns must be compacted only once
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null && !seenBefore(ints, c)) {
+                int[] v = ints[c];
+                for (int k = 0; k < n; k++)
+                    v[k] = v[sel[k]];
+            } else if (fields[c] != null && !seenBefore(fields, c)) {
+                Field[] v = fields[c];
+                for (int k = 0; k < n; k++)
+                    v[k] = v[sel[k]];
+            }
+        }
+        if (ridPages != null) {
+            for (int k = 0; k < n; k++) {
+                ridPages[k] = ridPages[sel[k]];
+                ridSlots[k] = ridSlots[sel[k]];
+            }
+        }
+        size = n;
+    }
+
+    private static boolean seenBefore(Object[] vectors, int c) {
+        for (int i = 0; i < c; i++) {
+            if (vectors[i] == vectors[c])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Point the columns of this batch, which must have been created without
+     * column vectors, at columns cols of src, and take its rows. The vectors
+     * are shared, not copied.
+     */
+    public void project(TupleBatch src, int[] cols) {
+        for (int c = 0; c < cols.length; c++) {
+            ints[c] = src.ints[cols[c]];
+            fields[c] = src.fields[cols[c]];
+        }
+        ridPages = src.ridPages;
+        ridSlots = src.ridSlots;
+        size = src.size;
+    }
+
+    /**
+     * @return a copy of this batch's rows, with column vectors of its own,
+     *         for a reader that must keep them after this batch is reused.
+     *         The copy's schema is td, which must have the same types.
+     */
+    public TupleBatch copy(TupleDesc td) {
+        TupleBatch copy = new TupleBatch(td, size);
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                copy.ints[c] = Arrays.copyOf(ints[c], size);
+            else
+                copy.fields[c] = Arrays.copyOf(fields[c], size);
+        }
+        if (ridPages != null) {
+            copy.ridPages = Arrays.copyOf(ridPages, size);
+            copy.ridSlots = Arrays.copyOf(ridSlots, size);
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TupleBatch(").append(size).append(" rows)");
+        for (int r = 0; r < Math.min(size, 3); r++)
+            builder.append(' ').append(Arrays.toString(getTuple(r).getFields()));
+        return builder.toString();
+    }
+}
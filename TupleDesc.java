@@ -52,6 +52,7 @@ public class TupleDesc implements Serializable {
 
     Type[] types;
     String[] fieldNames = null;
+    int[] maxLens = null;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -70,6 +71,44 @@ public class TupleDesc implements Serializable {
         fieldNames = fieldAr;
     }
 
+    /**
+     * Create a new TupleDesc whose fields have declared maximum lengths.
+     * Tables with such a TupleDesc are stored in slotted HeapPages with
+     * variable-length records instead of fixed-size slots.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param maxLenAr
+     *            the declared maximum length of each field, in bytes; only
+     *            meaningful for string fields.
+     * @throws IllegalArgumentException
+     *             if a string length is negative or over
+     *             {@link Type#MAX_STRING_LEN}, or if a record of the longest
+     *             declared strings does not fit on a page.
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] maxLenAr) {
+        this(typeAr, fieldAr);
+        int maxSize = 0;
+        for (int i = 0; i < typeAr.length; i++) {
+            if (typeAr[i] != Type.STRING_TYPE) {
+                maxSize += typeAr[i].getLen();
+                continue;
+            }
+            if (maxLenAr[i] < 0 || maxLenAr[i] > Type.MAX_STRING_LEN)
+                throw new IllegalArgumentException("string(" + maxLenAr[i] + "): length must be between 0 and "
+                        + Type.MAX_STRING_LEN);
+            maxSize += Type.STRING_TYPE.getMinLen() + maxLenAr[i];
+        }
+        if (HeapPage.SLOTTED_HEADER_SIZE + HeapPage.SLOT_SIZE + maxSize > BufferPool.getPageSize())
+            throw new IllegalArgumentException("records of up to " + maxSize + " bytes do not fit on a page of "
+                    + BufferPool.getPageSize() + " bytes");
+        maxLens = maxLenAr;
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -146,6 +185,31 @@ public class TupleDesc implements Serializable {
         return types[i];
     }
 
+    /**
+     * Gets the declared maximum length of the ith field. Fields without a
+     * declared length use the fixed length of their type.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getMaxLen(int i) throws NoSuchElementException {
+        if (!validIndex(i))
+            throw new NoSuchElementException();
+        if (maxLens != null)
+            return maxLens[i];
+        return types[i] == Type.STRING_TYPE ? Type.STRING_LEN : types[i].getLen();
+    }
+
+    /**
+     * @return true if this TupleDesc declares field lengths, i.e. its tuples
+     *         are stored as variable-length records.
+     */
+    public boolean isVariableLength() {
+        return maxLens != null;
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -160,7 +224,7 @@ public class TupleDesc implements Serializable {
         if (fieldNames != null) {
             String[] fNames = fieldNames;
             for (int i = 0; i < fNames.length; i++) {
-                if (fNames[i].equals(name))
+                if (fNames[i] != null && fNames[i].equals(name))
                     return i;
             }
         }
@@ -168,8 +232,9 @@ public class TupleDesc implements Serializable {
     }
 
     /**
-     * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     * @return The size (in bytes) of tuples corresponding to this TupleDesc
+     *         in the fixed-size format. Variable-length tuples use
+     *         {@link #getMinSize()} and {@link Type#getLen(Field, int)}.
      */
     public int getSize() {
         int sum = 0;
@@ -178,6 +243,17 @@ public class TupleDesc implements Serializable {
         return sum;
     }
 
+    /**
+     * @return The fewest bytes a variable-length tuple of this TupleDesc
+     *         can take.
+     */
+    public int getMinSize() {
+        int sum = 0;
+        for (Type type : types)
+            sum += type.getMinLen();
+        return sum;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -204,6 +280,16 @@ public class TupleDesc implements Serializable {
             System.arraycopy(td1FieldsName, 0, fieldAr, 0, td1FieldsName.length);
             System.arraycopy(td2FieldsName, 0, fieldAr, td1FieldsName.length, td2FieldsName.length);
         }
+
+        if (td1.isVariableLength() && td2.isVariableLength()) {
+            int[] maxLenAr = new int[typeAr.length];
+            System.arraycopy(td1.maxLens, 0, maxLenAr, 0, td1Types.length);
+            System.arraycopy(td2.maxLens, 0, maxLenAr, td1Types.length, td2Types.length);
+            /// a joined tuple is never stored, so it need not fit on a page
+            TupleDesc td = new TupleDesc(typeAr, fieldAr);
+            td.maxLens = maxLenAr;
+            return td;
+        }
         return new TupleDesc(typeAr, fieldAr);
     }
 
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Class representing a type in SimpleDB.
@@ -32,6 +34,26 @@ public enum Type implements Serializable {
             return data;
         }
 
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public int getLen(Field f, int maxLen) {
+            return 4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis, int maxLen) throws ParseException {
+            return parse(dis);
+        }
+
+        @Override
+        public void serialize(DataOutputStream dos, Field f, int maxLen) throws IOException {
+            dos.writeInt(((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -63,10 +85,53 @@ public enum Type implements Serializable {
                 data[i + 4] = strByes[i];
             return data;
         }
+
+        @Override
+        public int getMinLen() {
+            return 2;
+        }
+
+        @Override
+        public int getLen(Field f, int maxLen) {
+            return 2 + encode(((StringField) f).getValue(), maxLen).length;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis, int maxLen) throws ParseException {
+            try {
+                int strLen = dis.readUnsignedShort();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs, StandardCharsets.UTF_8), maxLen);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(DataOutputStream dos, Field f, int maxLen) throws IOException {
+            byte[] bs = encode(((StringField) f).getValue(), maxLen);
+            dos.writeShort(bs.length);
+            dos.write(bs);
+        }
+
+        /// the UTF-8 bytes of s, cut to at most maxLen bytes at a character boundary
+        private byte[] encode(String s, int maxLen) {
+            byte[] bs = s.getBytes(StandardCharsets.UTF_8);
+            if (bs.length <= maxLen)
+                return bs;
+            int len = maxLen;
+            while (len > 0 && (bs[len] & 0xC0) == 0x80)
+                len--;
+            return Arrays.copyOf(bs, len);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /** The longest declared length of a string in a variable-length record, whose length is a 2-byte short. */
+    public static final int MAX_STRING_LEN = 0xFFFF;
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -84,6 +149,34 @@ public enum Type implements Serializable {
 
     public abstract byte[] toBytes(Object o);
 
+  /**
+   * @return the fewest bytes a field of this type can take in a
+   *   variable-length record (see {@link HeapPage}'s slotted format).
+   */
+    public abstract int getMinLen();
+
+  /**
+   * @return the number of bytes f takes in a variable-length record when
+   *   its column is declared with maximum length maxLen.
+   */
+    public abstract int getLen(Field f, int maxLen);
+
+  /**
+   * @return a Field read from a variable-length record, i.e. without the
+   *   padding that {@link #parse(DataInputStream)} expects.
+   * @param dis The input stream to read from
+   * @param maxLen The declared maximum length of the column
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(DataInputStream dis, int maxLen) throws ParseException;
+
+  /**
+   * Write f to dos in variable-length form. Strings are written in UTF-8,
+   * truncated at a character boundary to at most maxLen bytes.
+   */
+    public abstract void serialize(DataOutputStream dos, Field f, int maxLen) throws IOException;
+
     static private void integerToBytes(byte[] data, int val)
     {
         data[0] = (byte) (val >> 24);
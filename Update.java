@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The update operator. Update reads tuples from its child operator and sets
+ * some of their fields to new values in the table they belong to.
+ * <p>
+ * Tuples are rewritten in place, in the slot they occupy, so they keep their
+ * RecordIds and the scan feeding the update never sees them again. Only a
+ * tuple that no longer fits on its page (or lives in a file that cannot
+ * update in place) is deleted and inserted anew, once the child has been
+ * read in full.
+ */
+public class Update extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    OpIterator[] childs;
+    TransactionId transactionId;
+    int[] fields;
+    Field[] values;
+
+    int cnt;
+    TupleDesc td;
+    Tuple resTuple;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the update.
+     * @param child
+     *            The child operator from which to read the tuples to update;
+     *            they must be whole tuples of their table, with RecordIds.
+     * @param fields
+     *            The indexes of the fields to set.
+     * @param values
+     *            The new values of those fields.
+     */
+    public Update(TransactionId t, OpIterator child, int[] fields, Field[] values) {
+        if (fields.length != values.length)
+            throw new IllegalArgumentException("Update: need one value per field");
+        transactionId = t;
+        childs = new OpIterator[] { child };
+        this.fields = fields;
+        this.values = values;
+        cnt = 0;
+        td = new TupleDesc(new Type[]{ Type.INT_TYPE }, null);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        OpIterator opIterator = childs[0];
+        opIterator.open();
+        BufferPool bufferPool = Database.getBufferPool();
+
+        /// tuples that have to move, by table; inserted after the scan so it cannot see them again
+        Map<Integer, ArrayList<Tuple>> moved = new LinkedHashMap<>();
+        try {
+            while (opIterator.hasNext()) {
+                Tuple t = opIterator.next();
+                if (!bufferPool.updateTuple(transactionId, t, fields, values)) {
+                    int tableId = t.getRecordId().getPageId().getTableId();
+                    Tuple updated = new Tuple(Database.getCatalog().getTupleDesc(tableId));
+                    for (int i = 0; i < updated.getTupleDesc().numFields(); i++)
+                        updated.setField(i, t.getField(i));
+                    for (int i = 0; i < fields.length; i++)
+                        updated.setField(fields[i], values[i]);
+                    bufferPool.deleteTuple(transactionId, t);
+                    moved.computeIfAbsent(tableId, k -> new ArrayList<>()).add(updated);
+                }
+                cnt++;
+            }
+            for (Map.Entry<Integer, ArrayList<Tuple>> e : moved.entrySet())
+                bufferPool.insertTuples(transactionId, e.getKey(), e.getValue());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //System.exit(-1);
+        }
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(cnt));
+        resTuple = t;
+    }
+
+    public void close() {
+        super.close();
+        childs[0].close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cnt = 0;
+        close();
+        open();
+    }
+
+    /**
+     * Updates the tuples read from child, via the buffer pool. It returns a
+     * one field tuple containing the number of updated records.
+     *
+     * @return A 1-field tuple containing the number of updated records, or
+     *         null if called more than once.
+     * @see BufferPool#updateTuple
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Tuple t = resTuple;
+        resTuple = null;
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return childs;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        childs = children;
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for each page of a HeapFile, the smallest and largest value
+ * of every column on that page, so that a scan with pushed-down predicates
+ * can skip pages whose values cannot match without reading or decoding them.
+ * <p>
+ * INT columns keep exact bounds. STRING columns keep the first
+ * {@link #PREFIX_LEN} characters of their smallest and largest values, which
+ * still bound every value on the page from below and (as prefixes) from
+ * above.
+ * <p>
+ * The zones live in memory next to the HeapFile. A page's zone is computed
+ * when the page is read from disk, widened as tuples are inserted, and
+ * dropped when a tuple is deleted, to be recomputed the next time a clean
+ * copy of the page is seen. A page without a zone is never skipped.
+ */
+public class ZoneMap {
+    /** Number of leading characters of string bounds kept per zone. */
+    public static final int PREFIX_LEN = 8;
+
+    private static class Zone {
+        boolean empty = true;
+        int[] min, max;             /// INT columns
+        String[] minP, maxP;        /// STRING columns
+    }
+
+    private final TupleDesc td;
+    private final ArrayList<Zone> zones = new ArrayList<>();
+
+    public ZoneMap(TupleDesc td) {
+        this.td = td;
+    }
+
+    /**
+     * @return true if page pageNo has a zone, i.e. can be skipped by scans.
+     */
+    public synchronized boolean hasZone(int pageNo) {
+        return pageNo < zones.size() && zones.get(pageNo) != null;
+    }
+
+    /**
+     * Recompute the zone of page pageNo from its tuples. The page must hold
+     * committed data only -- a zone built from a page with an uncommitted
+     * delete would be too narrow if that transaction aborts.
+     */
+    public synchronized void update(int pageNo, HeapPage page) {
+        Zone zone = new Zone();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            widen(zone, it.next());
+        while (zones.size() <= pageNo)
+            zones.add(null);
+        zones.set(pageNo, zone);
+    }
+
+    /**
+     * Widen the zone of page pageNo to cover t, which was just inserted
+     * into it. Pages without a zone keep having none.
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        if (hasZone(pageNo))
+            widen(zones.get(pageNo), t);
+    }
+
+    /**
+     * Drop the zone of page pageNo after a delete; until it is recomputed
+     * the page is not skipped.
+     */
+    public synchronized void invalidate(int pageNo) {
+        if (pageNo < zones.size())
+            zones.set(pageNo, null);
+    }
+
+    /**
+     * Forget the zones of pages numPages and up, after the file was truncated.
+     */
+    public synchronized void truncate(int numPages) {
+        while (zones.size() > numPages)
+            zones.remove(zones.size() - 1);
+    }
+
+    /**
+     * @return false if no tuple on page pageNo can satisfy all of preds
+     *         (whose fields index this file's TupleDesc); true if some might,
+     *         or if the page has no zone.
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> preds) {
+        if (!hasZone(pageNo))
+            return true;
+        Zone zone = zones.get(pageNo);
+        if (zone.empty)
+            return false;
+        for (Predicate p : preds) {
+            if (!mayMatch(zone, p))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean mayMatch(Zone zone, Predicate p) {
+        int i = p.getField();
+        Field operand = p.getOperand();
+        if (td.getFieldType(i) == Type.INT_TYPE) {
+            int v = ((IntField) operand).getValue();
+            int min = zone.min[i], max = zone.max[i];
+            switch (p.getOp()) {
+                case EQUALS: return min <= v && v <= max;
+                case NOT_EQUALS: return !(min == v && max == v);
+                case GREATER_THAN: return max > v;
+                case GREATER_THAN_OR_EQ: return max >= v;
+                case LESS_THAN: return min < v;
+                case LESS_THAN_OR_EQ: return min <= v;
+                default: return true;
+            }
+        }
+
+        /// every value s on the page has minP <= s and prefix(s) <= maxP
+        String v = ((StringField) operand).getValue();
+        String vP = prefix(v);
+        String minP = zone.minP[i], maxP = zone.maxP[i];
+        switch (p.getOp()) {
+            case EQUALS: return minP.compareTo(v) <= 0 && vP.compareTo(maxP) <= 0;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ: return vP.compareTo(maxP) <= 0;
+            case LESS_THAN: return minP.compareTo(v) < 0;
+            case LESS_THAN_OR_EQ: return minP.compareTo(v) <= 0;
+            default: return true;
+        }
+    }
+
+    private void widen(Zone zone, Tuple t) {
+        int n = td.numFields();
+        if (zone.empty) {
+            zone.min = new int[n];
+            zone.max = new int[n];
+            zone.minP = new String[n];
+            zone.maxP = new String[n];
+        }
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = t.getInt(i);
+                if (zone.empty || v < zone.min[i])
+                    zone.min[i] = v;
+                if (zone.empty || v > zone.max[i])
+                    zone.max[i] = v;
+            } else {
+                String vP = prefix(((StringField) t.getField(i)).getValue());
+                if (zone.empty || vP.compareTo(zone.minP[i]) < 0)
+                    zone.minP[i] = vP;
+                if (zone.empty || vP.compareTo(zone.maxP[i]) > 0)
+                    zone.maxP[i] = vP;
+            }
+        }
+        zone.empty = false;
+    }
+
+    private static String prefix(String s) {
+        return s.length() <= PREFIX_LEN ? s : s.substring(0, PREFIX_LEN);
+    }
+}